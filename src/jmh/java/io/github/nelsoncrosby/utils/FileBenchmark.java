@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the {@link StreamUtils} file methods, against the JDK's
+ *  equivalents, on a tmpfs ({@code /dev/shm}) and on disk.
+ *
+ * The disk directory defaults to {@code build/jmh-tmp}, and can be changed
+ *  with {@code -Dncutils.bench.disk=...}. Where there's no
+ *  {@code /dev/shm}, the tmpfs endpoint falls back to {@code java.io.tmpdir}.
+ *
+ * @author Nelson Crosby
+ * @see StreamBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileBenchmark {
+    @Param({"1024", "1048576", "67108864"})
+    public int payloadSize;
+
+    @Param({"1024", "8192", "65536"})
+    public int blockSize;
+
+    @Param({"tmpfs", "disk"})
+    public String endpoint;
+
+    private byte[] payload;
+    private File source;
+    private File destination;
+
+    @Setup
+    public void createFiles() throws IOException {
+        File directory;
+        if (endpoint.equals("tmpfs")) {
+            directory = new File("/dev/shm");
+            if (!directory.isDirectory() || !directory.canWrite())
+                directory = new File(System.getProperty("java.io.tmpdir"));
+        } else {
+            directory = new File(System.getProperty("ncutils.bench.disk", "build/jmh-tmp"));
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+
+        payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        source = File.createTempFile("ncutils-bench", ".src", directory);
+        destination = File.createTempFile("ncutils-bench", ".dst", directory);
+        StreamUtils.writeToFile(payload, source);
+    }
+
+    @TearDown
+    public void deleteFiles() {
+        source.delete();
+        destination.delete();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream readWholeFile() throws IOException {
+        return StreamUtils.readWholeFile(source, blockSize);
+    }
+
+    @Benchmark
+    public ByteSlice readWholeFileSlice() throws IOException {
+        return StreamUtils.readWholeFileSlice(source);
+    }
+
+    @Benchmark
+    public void writeToFile() throws IOException {
+        StreamUtils.writeToFile(payload, destination, blockSize);
+    }
+
+    @Benchmark
+    public void copyStreams() throws IOException {
+        StreamUtils.copyStreams(new FileInputStream(source), new FileOutputStream(destination), blockSize);
+    }
+
+    /**
+     * Baseline for {@link #readWholeFile()} and {@link #readWholeFileSlice()}.
+     */
+    @Benchmark
+    public byte[] filesReadAllBytes() throws IOException {
+        return Files.readAllBytes(source.toPath());
+    }
+
+    /**
+     * Baseline for {@link #copyStreams()}.
+     */
+    @Benchmark
+    public long fileChannelTransferTo() throws IOException {
+        try (FileChannel from = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel to = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long size = from.size();
+            while (position < size)
+                position += from.transferTo(position, size - position, to);
+            return position;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the {@link StreamUtils} hot paths with in-memory
+ *  endpoints, so that only the library's own overhead is measured.
+ *
+ * Run with {@code gradle jmh}, which also reports allocation rates.
+ *
+ * @author Nelson Crosby
+ * @see FileBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+    /** {@code InputStream.transferTo}, which only exists on Java 9+ */
+    private static final MethodHandle TRANSFER_TO;
+
+    static {
+        MethodHandle transferTo = null;
+        try {
+            transferTo = MethodHandles.publicLookup().findVirtual(InputStream.class, "transferTo",
+                    MethodType.methodType(long.class, OutputStream.class));
+        } catch (ReflectiveOperationException ignored) {
+        }
+        TRANSFER_TO = transferTo;
+    }
+
+    @Param({"1024", "1048576", "67108864"})
+    public int payloadSize;
+
+    @Param({"1024", "8192", "65536"})
+    public int blockSize;
+
+    private byte[] payload;
+
+    @Setup
+    public void createPayload() {
+        payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+    }
+
+    @Benchmark
+    public void copyStreams(Blackhole blackhole) throws IOException {
+        StreamUtils.copyStreams(new ByteArrayInputStream(payload), new DiscardingOutputStream(blackhole), blockSize);
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream readWholeStream() throws IOException {
+        return StreamUtils.readWholeStream(new ByteArrayInputStream(payload), blockSize);
+    }
+
+    @Benchmark
+    public void writeToStream(Blackhole blackhole) throws IOException {
+        StreamUtils.writeToStream(payload, new DiscardingOutputStream(blackhole), blockSize);
+    }
+
+    /**
+     * Baseline: the JDK's own copy loop (Java 9+; fails on older JVMs).
+     */
+    @Benchmark
+    public long inputStreamTransferTo(Blackhole blackhole) throws Throwable {
+        if (TRANSFER_TO == null)
+            throw new UnsupportedOperationException("InputStream.transferTo needs Java 9+");
+        return (long) TRANSFER_TO.invokeExact((InputStream) new ByteArrayInputStream(payload),
+                (OutputStream) new DiscardingOutputStream(blackhole));
+    }
+
+    /**
+     * An {@link OutputStream} that hands everything to a {@link Blackhole},
+     *  so the writes can't be optimised away.
+     */
+    static class DiscardingOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        DiscardingOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+            blackhole.consume(len);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking versions of the main {@link StreamUtils} methods, which
+ *  return a {@link CompletableFuture} instead of tying up the calling
+ *  thread.
+ *
+ * File reads and writes use {@link AsynchronousFileChannel}. Stream copies
+ *  can't be done without blocking a thread, so they are run on the
+ *  scheduler's executor (virtual threads where the JVM has them, otherwise
+ *  a bounded pool).
+ *
+ * Every method goes through a {@link TransferScheduler}, so thousands of
+ *  calls at once don't run out of file descriptors or memory. Methods that
+ *  don't take one use {@link #getDefaultScheduler()}.
+ *
+ * @author Nelson Crosby
+ */
+public class AsyncStreamUtils {
+    /** The most bytes requested from an {@link AsynchronousFileChannel} in one go */
+    private static final int MAX_IO_SIZE = 1 << 20;
+
+    private static final TransferScheduler DEFAULT_SCHEDULER = new TransferScheduler(
+            64, 256L << 20, createDefaultExecutor());
+
+    /**
+     * The default scheduler allows 64 transfers and 256 MiB in flight.
+     *
+     * @return The scheduler used by methods that don't take one
+     */
+    public static TransferScheduler getDefaultScheduler() {
+        return DEFAULT_SCHEDULER;
+    }
+
+    /**
+     * Runs {@link StreamUtils#copyStreams(InputStream, OutputStream, int)}
+     *  on {@code scheduler}'s executor.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @param blockSize The size of the buffer to be used
+     * @param scheduler The {@link TransferScheduler} to run the copy on
+     * @return A future that completes once the copy is done and both
+     *  streams are closed
+     * @see StreamUtils#copyStreams(InputStream, OutputStream, int)
+     */
+    public static CompletableFuture<Void> copyAsync(final InputStream from, final OutputStream to,
+                                                    final int blockSize, TransferScheduler scheduler) {
+        // The stream's length is unknown; what it holds in memory is the buffer
+        return scheduler.submitBlocking(blockSize, () -> {
+            StreamUtils.copyStreams(from, to, blockSize);
+            return null;
+        });
+    }
+
+    /**
+     * Wrapper for {@link #copyAsync(InputStream, OutputStream, int, TransferScheduler)}
+     *  using {@link #getDefaultScheduler()}.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @param blockSize The size of the buffer to be used
+     * @return A future that completes once the copy is done
+     */
+    public static CompletableFuture<Void> copyAsync(InputStream from, OutputStream to, int blockSize) {
+        return copyAsync(from, to, blockSize, DEFAULT_SCHEDULER);
+    }
+
+    /**
+     * Wrapper for {@link #copyAsync(InputStream, OutputStream, int)} using
+     *  a {@code blockSize} of {@link StreamUtils#DEFAULT_BLOCK_SIZE}.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @return A future that completes once the copy is done
+     */
+    public static CompletableFuture<Void> copyAsync(InputStream from, OutputStream to) {
+        return copyAsync(from, to, StreamUtils.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Reads the whole of {@code from} using an
+     *  {@link AsynchronousFileChannel}, into an array sized from the length
+     *  of the file when the read starts.
+     *
+     * @param from The {@link File} to read from
+     * @param scheduler The {@link TransferScheduler} to run the read on
+     * @return A future that completes with the contents of the file
+     * @see StreamUtils#readWholeFileSlice(File)
+     */
+    public static CompletableFuture<ByteSlice> readWholeFileAsync(final File from, TransferScheduler scheduler) {
+        return scheduler.submit(from.length(), () -> {
+            CompletableFuture<ByteSlice> result = new CompletableFuture<>();
+            try {
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(
+                        from.toPath(), StandardOpenOption.READ);
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE - 8) {
+                    closeQuietly(channel);
+                    throw new IOException("Too large to read into an array: " + size + " bytes");
+                }
+                new ReadHandler(channel, new byte[(int) size], result).next();
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Wrapper for {@link #readWholeFileAsync(File, TransferScheduler)} using
+     *  {@link #getDefaultScheduler()}.
+     *
+     * @param from The {@link File} to read from
+     * @return A future that completes with the contents of the file
+     */
+    public static CompletableFuture<ByteSlice> readWholeFileAsync(File from) {
+        return readWholeFileAsync(from, DEFAULT_SCHEDULER);
+    }
+
+    /**
+     * Writes the bytes {@code toWrite} into {@code writeTo}, replacing its
+     *  contents, using an {@link AsynchronousFileChannel}.
+     *
+     * The caller must not modify {@code toWrite} until the write completes.
+     *
+     * @param toWrite The bytes to write
+     * @param writeTo The {@link File} to write to
+     * @param scheduler The {@link TransferScheduler} to run the write on
+     * @return A future that completes once the write is done
+     * @see StreamUtils#writeToFile(byte[], File)
+     */
+    public static CompletableFuture<Void> writeToFileAsync(final byte[] toWrite, final File writeTo,
+                                                           TransferScheduler scheduler) {
+        return scheduler.submit(toWrite.length, () -> {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            try {
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(writeTo.toPath(),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                new WriteHandler(channel, toWrite, result).next();
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Wrapper for {@link #writeToFileAsync(byte[], File, TransferScheduler)}
+     *  using {@link #getDefaultScheduler()}.
+     *
+     * @param toWrite The bytes to write
+     * @param writeTo The {@link File} to write to
+     * @return A future that completes once the write is done
+     */
+    public static CompletableFuture<Void> writeToFileAsync(byte[] toWrite, File writeTo) {
+        return writeToFileAsync(toWrite, writeTo, DEFAULT_SCHEDULER);
+    }
+
+    /**
+     * Issues chunked positional reads until the array is full or EOF.
+     */
+    private static class ReadHandler implements CompletionHandler<Integer, Void> {
+        private final AsynchronousFileChannel channel;
+        private final byte[] array;
+        private final CompletableFuture<ByteSlice> result;
+        private int length;
+
+        ReadHandler(AsynchronousFileChannel channel, byte[] array, CompletableFuture<ByteSlice> result) {
+            this.channel = channel;
+            this.array = array;
+            this.result = result;
+        }
+
+        void next() {
+            if (length == array.length) {
+                finish();
+                return;
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(array, length, Math.min(array.length - length, MAX_IO_SIZE));
+            channel.read(chunk, length, null, this);
+        }
+
+        private void finish() {
+            try {
+                channel.close();
+                result.complete(new ByteSlice(array, 0, length));
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void completed(Integer bytesRead, Void attachment) {
+            if (bytesRead == -1) {
+                // The file shrank after it was opened
+                finish();
+                return;
+            }
+            length += bytesRead;
+            next();
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+            closeQuietly(channel);
+            result.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Issues chunked positional writes until the whole array is written.
+     */
+    private static class WriteHandler implements CompletionHandler<Integer, Void> {
+        private final AsynchronousFileChannel channel;
+        private final byte[] array;
+        private final CompletableFuture<Void> result;
+        private int written;
+
+        WriteHandler(AsynchronousFileChannel channel, byte[] array, CompletableFuture<Void> result) {
+            this.channel = channel;
+            this.array = array;
+            this.result = result;
+        }
+
+        void next() {
+            if (written == array.length) {
+                try {
+                    channel.close();
+                    result.complete(null);
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+                return;
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(array, written, Math.min(array.length - written, MAX_IO_SIZE));
+            channel.write(chunk, written, null, this);
+        }
+
+        @Override
+        public void completed(Integer bytesWritten, Void attachment) {
+            written += bytesWritten;
+            next();
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+            closeQuietly(channel);
+            result.completeExceptionally(error);
+        }
+    }
+
+    private static void closeQuietly(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Uses a virtual thread per task if this JVM supports them (the
+     *  scheduler already bounds how many run at once), and otherwise a pool
+     *  of daemon threads.
+     */
+    private static ExecutorService createDefaultExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            int threads = Math.max(4, Sys.getProfile().getParallelism() * 2);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), runnable -> {
+                Thread thread = new Thread(runnable, "ncutils-async-copy");
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+}
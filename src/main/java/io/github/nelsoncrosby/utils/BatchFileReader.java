@@ -0,0 +1,162 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The engine behind {@link StreamUtils#readWholeFiles}.
+ *
+ * Up to {@code maxConcurrent} workers are started on the executor, and each
+ *  keeps taking the next unread file until there are none left, so no more
+ *  than that many reads are ever in progress. Every file gets its own
+ *  result, whether or not the others could be read.
+ *
+ * @author Nelson Crosby
+ */
+class BatchFileReader {
+    private final File[] files;
+    private final LoadedFile[] results;
+    private final long byteBudget;
+
+    private final AtomicInteger next = new AtomicInteger();
+    /** Bytes claimed from the budget so far */
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile boolean cancelled;
+
+    private BatchFileReader(File[] files, long byteBudget) {
+        this.files = files;
+        this.results = new LoadedFile[files.length];
+        this.byteBudget = byteBudget;
+    }
+
+    static List<LoadedFile> read(Collection<File> files, int maxConcurrent, long byteBudget, Executor executor)
+            throws IOException {
+        if (maxConcurrent <= 0)
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        BatchFileReader batch = new BatchFileReader(files.toArray(new File[files.size()]), byteBudget);
+        batch.run(Math.min(maxConcurrent, batch.files.length), executor);
+        return Arrays.asList(batch.results);
+    }
+
+    private void run(int workers, Executor executor) throws IOException {
+        final CountDownLatch done = new CountDownLatch(workers);
+        RejectedExecutionException rejected = null;
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        work();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The workers already started will get through every file
+                rejected = e;
+                for (int j = i; j < workers; j++)
+                    done.countDown();
+                break;
+            }
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            // Let the reads in progress finish, but don't start any more
+            cancelled = true;
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading files");
+        }
+
+        // Only happens if no worker could be started at all
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null)
+                results[i] = new LoadedFile(files[i], null, new IOException("Executor rejected the read", rejected));
+        }
+    }
+
+    private void work() {
+        int index;
+        while (!cancelled && (index = next.getAndIncrement()) < files.length) {
+            File file = files[index];
+            try {
+                results[index] = new LoadedFile(file, readWithinBudget(file), null);
+            } catch (IOException e) {
+                results[index] = new LoadedFile(file, null, e);
+            } catch (RuntimeException | OutOfMemoryError e) {
+                results[index] = new LoadedFile(file, null, new IOException(e));
+            }
+        }
+    }
+
+    private ByteSlice readWithinBudget(File file) throws IOException {
+        if (byteBudget < 0)
+            return StreamUtils.readWholeFileSlice(file);
+
+        long expected = file.length();
+        claim(expected, file);
+        ByteSlice contents;
+        try {
+            contents = StreamUtils.readWholeFileSlice(file);
+        } catch (IOException | RuntimeException e) {
+            claimed.addAndGet(-expected);
+            throw e;
+        }
+        // The file may have changed size since it was measured
+        long difference = contents.length() - expected;
+        if (difference > 0) {
+            try {
+                claim(difference, file);
+            } catch (IOException e) {
+                claimed.addAndGet(-expected);
+                throw e;
+            }
+        } else {
+            claimed.addAndGet(difference);
+        }
+        return contents;
+    }
+
+    private void claim(long bytes, File file) throws IOException {
+        while (true) {
+            long current = claimed.get();
+            if (current + bytes > byteBudget)
+                throw new IOException("Reading " + file + " would exceed the byte budget of "
+                        + byteBudget + " bytes");
+            if (claimed.compareAndSet(current, current + bytes))
+                return;
+        }
+    }
+}
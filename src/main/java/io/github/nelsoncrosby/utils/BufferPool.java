@@ -0,0 +1,289 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable {@code byte[]} buffers, and of direct
+ *  {@link ByteBuffer}s, used by {@link StreamUtils} so that each copy doesn't
+ *  have to allocate a fresh buffer.
+ *
+ * Buffers are grouped into power-of-two size classes from
+ *  {@value #MIN_POOLED_SIZE} to {@value #MAX_POOLED_SIZE} bytes. Each thread
+ *  keeps at most one buffer of each class to itself; anything past that goes
+ *  into a shared pool, which is split into stripes to keep threads from
+ *  contending on the same lock. Every stripe holds a bounded number of
+ *  buffers, and buffers that don't fit are left for the garbage collector.
+ *
+ * Usage: <blockquote><pre>
+ *     byte[] buffer = pool.acquire(blockSize);
+ *     try {
+ *         ...
+ *     } finally {
+ *         pool.release(buffer);
+ *     }
+ * </pre></blockquote>
+ *
+ * Direct buffers work the same way, through {@link #acquireDirect} and
+ *  {@link #releaseDirect}. They live outside the Java heap, so channel I/O
+ *  through them needs no extra copy, and reusing them keeps the (slow)
+ *  allocation of native memory off the I/O path.
+ *
+ * @author Nelson Crosby
+ */
+public class BufferPool {
+    /** The smallest buffer handed out by {@link #acquire}, in bytes */
+    public static final int MIN_POOLED_SIZE = 1 << 9;
+    /** The largest buffer that will be kept for reuse, in bytes */
+    public static final int MAX_POOLED_SIZE = 1 << 20;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+
+    private static final BufferPool DEFAULT = new BufferPool(
+            Integer.highestOneBit(Sys.getProfile().getParallelism() * 2 - 1), 8);
+
+    /**
+     * @return The pool shared by {@link StreamUtils}
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    private final Shelves<byte[]> arrays;
+    private final Shelves<ByteBuffer> directBuffers;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    /**
+     * Creates a new, empty pool.
+     *
+     * @param stripeCount The number of stripes in the shared pool
+     * @param buffersPerStripe The number of buffers of each size class that a
+     *                         single stripe will keep
+     */
+    public BufferPool(int stripeCount, int buffersPerStripe) {
+        if (stripeCount <= 0 || buffersPerStripe <= 0)
+            throw new IllegalArgumentException("stripeCount and buffersPerStripe must be positive");
+        arrays = new Shelves<>(stripeCount, buffersPerStripe);
+        directBuffers = new Shelves<>(stripeCount, buffersPerStripe);
+    }
+
+    /**
+     * Gets a buffer of at least {@code minSize} bytes. The buffer may be
+     *  larger than requested, and its contents are undefined.
+     *
+     * Requests over {@value #MAX_POOLED_SIZE} bytes are always allocated
+     *  fresh, and count as misses.
+     *
+     * @param minSize The smallest acceptable buffer size
+     * @return A buffer which should later be given back with {@link #release}
+     */
+    public byte[] acquire(int minSize) {
+        outstanding.incrementAndGet();
+        int sizeClass = sizeClassOf(minSize);
+        if (sizeClass < 0) {
+            misses.incrementAndGet();
+            return new byte[minSize];
+        }
+
+        byte[] buffer = arrays.take(sizeClass);
+        if (buffer != null) {
+            hits.incrementAndGet();
+            return buffer;
+        }
+        misses.incrementAndGet();
+        return new byte[MIN_POOLED_SIZE << sizeClass];
+    }
+
+    /**
+     * Gives a buffer back to the pool. The caller must not use
+     *  {@code buffer} after this.
+     *
+     * @param buffer A buffer obtained from {@link #acquire}
+     */
+    public void release(byte[] buffer) {
+        outstanding.decrementAndGet();
+        int sizeClass = pooledSizeClassOf(buffer.length);
+        if (sizeClass >= 0)
+            arrays.put(sizeClass, buffer);
+    }
+
+    /**
+     * Gets a direct buffer with a capacity of at least {@code minSize}
+     *  bytes, cleared (so its limit is its capacity). The capacity may be
+     *  larger than requested, and the contents are undefined.
+     *
+     * Requests over {@value #MAX_POOLED_SIZE} bytes are always allocated
+     *  fresh, and count as misses; {@link #releaseDirect} then frees them
+     *  straight away, rather than leaving native memory for the garbage
+     *  collector to find.
+     *
+     * @param minSize The smallest acceptable capacity
+     * @return A buffer which should later be given back with {@link #releaseDirect}
+     */
+    public ByteBuffer acquireDirect(int minSize) {
+        outstanding.incrementAndGet();
+        int sizeClass = sizeClassOf(minSize);
+        if (sizeClass < 0) {
+            misses.incrementAndGet();
+            return ByteBuffer.allocateDirect(minSize);
+        }
+
+        ByteBuffer buffer = directBuffers.take(sizeClass);
+        if (buffer != null) {
+            hits.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        misses.incrementAndGet();
+        return ByteBuffer.allocateDirect(MIN_POOLED_SIZE << sizeClass);
+    }
+
+    /**
+     * Gives a direct buffer back to the pool. The caller must not use
+     *  {@code buffer}, or any view of it, after this.
+     *
+     * @param buffer A buffer obtained from {@link #acquireDirect}
+     */
+    public void releaseDirect(ByteBuffer buffer) {
+        outstanding.decrementAndGet();
+        int sizeClass = pooledSizeClassOf(buffer.capacity());
+        if (sizeClass >= 0)
+            directBuffers.put(sizeClass, buffer);
+        else
+            MappedFile.unmap(buffer);
+    }
+
+    /**
+     * @return The number of calls to {@link #acquire} and
+     *  {@link #acquireDirect} that reused a buffer
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of calls to {@link #acquire} and
+     *  {@link #acquireDirect} that had to allocate
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of buffers acquired and not yet released
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return The index of the size class that fits {@code size} bytes, or
+     *  -1 if it's too large to pool
+     */
+    private static int sizeClassOf(int size) {
+        if (size > MAX_POOLED_SIZE)
+            return -1;
+        if (size <= MIN_POOLED_SIZE)
+            return 0;
+        // Round up to the next power of two
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * @return The size class of a buffer of exactly {@code size} bytes, or
+     *  -1 if it isn't one of ours (or is too big to keep)
+     */
+    private static int pooledSizeClassOf(int size) {
+        if (size < MIN_POOLED_SIZE || size > MAX_POOLED_SIZE || Integer.bitCount(size) != 1)
+            return -1;
+        return Integer.numberOfTrailingZeros(size) - MIN_SHIFT;
+    }
+
+    /**
+     * The per-thread caches and striped shared pool for one kind of buffer.
+     */
+    private static final class Shelves<T> {
+        /** stripes[sizeClass][stripe] */
+        private final ArrayBlockingQueue<T>[][] stripes;
+        private final ThreadLocal<Object[]> threadCache = new ThreadLocal<Object[]>() {
+            @Override
+            protected Object[] initialValue() {
+                return new Object[SIZE_CLASSES];
+            }
+        };
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Shelves(int stripeCount, int buffersPerStripe) {
+            stripes = new ArrayBlockingQueue[SIZE_CLASSES][stripeCount];
+            for (ArrayBlockingQueue<T>[] sizeClass : stripes) {
+                for (int i = 0; i < stripeCount; i++)
+                    sizeClass[i] = new ArrayBlockingQueue<>(buffersPerStripe);
+            }
+        }
+
+        /**
+         * @return A buffer of the given size class, or {@code null} if
+         *  there are none spare
+         */
+        @SuppressWarnings("unchecked")
+        T take(int sizeClass) {
+            Object[] cache = threadCache.get();
+            T buffer = (T) cache[sizeClass];
+            if (buffer != null) {
+                cache[sizeClass] = null;
+                return buffer;
+            }
+
+            ArrayBlockingQueue<T>[] sizeClassStripes = stripes[sizeClass];
+            int home = stripeIndex();
+            for (int i = 0; i < sizeClassStripes.length; i++) {
+                buffer = sizeClassStripes[(home + i) % sizeClassStripes.length].poll();
+                if (buffer != null)
+                    return buffer;
+            }
+            return null;
+        }
+
+        void put(int sizeClass, T buffer) {
+            Object[] cache = threadCache.get();
+            if (cache[sizeClass] == null) {
+                cache[sizeClass] = buffer;
+                return;
+            }
+            // If the stripe is full the buffer is dropped
+            stripes[sizeClass][stripeIndex()].offer(buffer);
+        }
+
+        private int stripeIndex() {
+            return (int) (Thread.currentThread().getId() % stripes[0].length);
+        }
+    }
+}
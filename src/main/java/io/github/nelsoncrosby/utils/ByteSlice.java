@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A view of a range of a {@code byte[]}, used to hand out results without
+ *  copying them into an exactly-sized array first.
+ *
+ * The backing array is shared, not copied: changes to it are visible through
+ *  the slice and vice versa. Use {@link #toByteArray()} to get an
+ *  independent copy.
+ *
+ * @author Nelson Crosby
+ */
+public final class ByteSlice {
+    private final byte[] array;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Creates a slice covering {@code length} bytes of {@code array},
+     *  starting at {@code offset}.
+     *
+     * @param array The backing array
+     * @param offset The index of the first byte of the slice
+     * @param length The number of bytes in the slice
+     */
+    public ByteSlice(byte[] array, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > array.length - length)
+            throw new IndexOutOfBoundsException(
+                    "offset " + offset + ", length " + length + ", array length " + array.length);
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Creates a slice covering all of {@code array}.
+     *
+     * @param array The backing array
+     */
+    public ByteSlice(byte[] array) {
+        this(array, 0, array.length);
+    }
+
+    /**
+     * @return The backing array (not a copy)
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    /**
+     * @return The index in {@link #array()} of the first byte of the slice
+     */
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * @return The number of bytes in the slice
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param index The index of the byte within the slice
+     * @return The byte at {@code index}
+     */
+    public byte get(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        return array[offset + index];
+    }
+
+    /**
+     * @return A new array containing a copy of the slice
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(array, offset, offset + length);
+    }
+
+    /**
+     * @return A {@link ByteBuffer} over the slice, sharing its backing array
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(array, offset, length).slice();
+    }
+
+    /**
+     * @return An {@link InputStream} that reads the slice
+     */
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(array, offset, length);
+    }
+
+    /**
+     * Decodes the slice using {@code charset}.
+     *
+     * @param charset The {@link Charset} to decode with
+     * @return The decoded {@link String}
+     */
+    public String toString(Charset charset) {
+        return new String(array, offset, length, charset);
+    }
+
+    /**
+     * Decodes the slice using the platform's default charset, like
+     *  {@link java.io.ByteArrayOutputStream#toString()}.
+     *
+     * @return The decoded {@link String}
+     */
+    @Override
+    public String toString() {
+        return new String(array, offset, length);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.security.MessageDigest;
+import java.util.zip.Checksum;
+
+/**
+ * The outcome of a digesting copy or hash: how many bytes went through, and
+ *  the final value of each checksum and digest, in the order they were
+ *  given.
+ *
+ * @author Nelson Crosby
+ * @see StreamUtils#copyStreamsDigesting
+ */
+public final class DigestResult {
+    private final long byteCount;
+    private final long[] checksums;
+    private final byte[][] digests;
+
+    DigestResult(long byteCount, Checksum[] checksums, MessageDigest[] digests) {
+        this.byteCount = byteCount;
+        this.checksums = new long[checksums.length];
+        for (int i = 0; i < checksums.length; i++)
+            this.checksums[i] = checksums[i].getValue();
+        this.digests = new byte[digests.length][];
+        for (int i = 0; i < digests.length; i++)
+            this.digests[i] = digests[i].digest();
+    }
+
+    /**
+     * @return The number of bytes that were copied or hashed
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @param index The index of the {@link Checksum} as it was given
+     * @return The final value of that checksum
+     */
+    public long getChecksum(int index) {
+        return checksums[index];
+    }
+
+    /**
+     * @param index The index of the {@link MessageDigest} as it was given
+     * @return A copy of that digest's final value
+     */
+    public byte[] getDigest(int index) {
+        return digests[index].clone();
+    }
+
+    /**
+     * @param index The index of the {@link MessageDigest} as it was given
+     * @return That digest's final value as lowercase hexadecimal
+     */
+    public String getDigestHex(int index) {
+        StringBuilder hex = new StringBuilder(digests[index].length * 2);
+        for (byte b : digests[index])
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * How hard a write should try to make sure its data survives a crash or
+ *  power loss.
+ *
+ * @author Nelson Crosby
+ * @see StreamUtils#writeToFileAtomic(byte[], java.io.File, Durability)
+ * @see GroupCommitWriter
+ */
+public enum Durability {
+    /** Leave it to the OS to write the data out whenever it likes */
+    NONE,
+    /**
+     * Flush the file's contents to the device before returning (like
+     *  {@code fdatasync}), but not necessarily metadata such as its
+     *  modification time
+     */
+    DATA,
+    /**
+     * Flush the file's contents and metadata (like {@code fsync}), as well
+     *  as the directory containing it, so that a newly created or renamed
+     *  file can be found after a crash
+     */
+    FULL;
+
+    /**
+     * Flushes {@code channel} as required by this level.
+     *
+     * @param channel The channel to flush
+     * @throws IOException See {@link FileChannel#force}
+     */
+    void sync(FileChannel channel) throws IOException {
+        if (this != NONE)
+            channel.force(this == FULL);
+    }
+
+    /**
+     * Flushes the directory entry changes in {@code directory}, if this
+     *  level is {@link #FULL}. Windows doesn't allow directories to be
+     *  opened like this (and doesn't need it), so it's skipped there.
+     *
+     * @param directory The directory to flush
+     * @throws IOException See {@link FileChannel#force}
+     */
+    void syncDirectory(Path directory) throws IOException {
+        if (this != FULL || Sys.SYSTEM == Sys.WINDOWS)
+            return;
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A read-through cache of whole file contents, for files that are read
+ *  over and over (templates, configuration and so on).
+ *
+ * Files are cached by canonical path. Every lookup checks the file's size
+ *  and modification time (one {@code stat}), and reloads it if either has
+ *  changed; a change that keeps both the same (within the filesystem's
+ *  timestamp resolution) isn't noticed.
+ *
+ * The cache holds at most a fixed number of bytes, evicting the least
+ *  recently used files to make room; files bigger than that are read but
+ *  not kept. When several threads miss on the same file at once, only one
+ *  of them reads it and the others wait for its result.
+ *
+ * Contents are shared between callers as read-only {@link ByteBuffer}s, so
+ *  nobody can change what another caller sees.
+ *
+ * @author Nelson Crosby
+ */
+public class FileCache {
+    private final long maxBytes;
+    /** In access order, so the eldest entry is the least recently used */
+    private final LinkedHashMap<String, Node> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Bytes held by loaded entries; guarded by entries */
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes The most bytes of file contents to hold at once
+     */
+    public FileCache(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the contents of {@code file}, reading it only if it isn't cached
+     *  or has changed since.
+     *
+     * @param file The {@link File} to read
+     * @return A read-only buffer of the whole file, positioned at its start
+     * @throws IOException If the file can't be read
+     */
+    public ByteBuffer get(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        BasicFileAttributes attributes = Files.readAttributes(Paths.get(key), BasicFileAttributes.class);
+        long length = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        Node node;
+        boolean load = false;
+        synchronized (entries) {
+            node = entries.get(key);
+            if (node != null && (node.length != length || node.modified != modified)) {
+                remove(key);
+                node = null;
+            }
+            if (node == null) {
+                node = new Node(length, modified);
+                entries.put(key, node);
+                load = true;
+            }
+        }
+
+        if (load) {
+            misses.increment();
+            return load(key, node).duplicate();
+        }
+        hits.increment();
+        return node.await().duplicate();
+    }
+
+    /**
+     * Wrapper for {@link #get(File)} that copies the contents into a new array,
+     *  which the caller is free to change.
+     *
+     * @param file The {@link File} to read
+     * @return A copy of the whole file
+     * @throws IOException If the file can't be read
+     */
+    public byte[] getBytes(File file) throws IOException {
+        ByteBuffer contents = get(file);
+        byte[] bytes = new byte[contents.remaining()];
+        contents.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Drops {@code file} from the cache, if it's there.
+     *
+     * @param file The {@link File} to forget
+     * @throws IOException If the canonical path can't be worked out
+     */
+    public void invalidate(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        synchronized (entries) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Drops everything from the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * @return The most bytes this cache will hold
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The number of bytes currently held
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * @return The number of files currently cached (or being loaded)
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return The number of lookups answered from the cache, including
+     *  those that waited for another thread's read
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that had to read the file
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of files dropped to make room for others
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private ByteBuffer load(String key, Node node) throws IOException {
+        ByteBuffer contents;
+        try {
+            contents = StreamUtils.readWholeFileSlice(new File(key)).toByteBuffer().slice().asReadOnlyBuffer();
+        } catch (IOException | RuntimeException e) {
+            synchronized (entries) {
+                if (entries.get(key) == node)
+                    entries.remove(key);
+            }
+            node.contents.completeExceptionally(e);
+            throw e;
+        }
+
+        synchronized (entries) {
+            if (entries.get(key) == node) {
+                if (contents.capacity() > maxBytes) {
+                    entries.remove(key);
+                } else {
+                    node.bytes = contents.capacity();
+                    node.loaded = true;
+                    size += node.bytes;
+                    evict();
+                }
+            }
+        }
+        node.contents.complete(contents);
+        return contents;
+    }
+
+    /**
+     * Drops the least recently used entries until the cache is within
+     *  budget. Entries that are still loading don't count yet, so are left.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Node>> eldest = entries.entrySet().iterator();
+        while (size > maxBytes && eldest.hasNext()) {
+            Node node = eldest.next().getValue();
+            if (node.loaded) {
+                eldest.remove();
+                size -= node.bytes;
+                evictions.increment();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Node node = entries.remove(key);
+        if (node != null)
+            size -= node.bytes;
+    }
+
+    /**
+     * A cached file, which may still be loading.
+     */
+    private static final class Node {
+        final long length;
+        final long modified;
+        final CompletableFuture<ByteBuffer> contents = new CompletableFuture<>();
+        /** Counted against the budget once loaded; guarded by entries */
+        long bytes;
+        boolean loaded;
+
+        Node(long length, long modified) {
+            this.length = length;
+            this.modified = modified;
+        }
+
+        ByteBuffer await() throws IOException {
+            try {
+                return contents.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a file to load");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw new IOException(cause.getMessage(), cause);
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw (RuntimeException) cause;
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Follows a growing file (like {@code tail -f}), handing over only the bytes
+ *  appended since they were last read.
+ *
+ * The follower remembers how far into the file it has read. Each
+ *  {@link #poll} reads from there to the current end of the file;
+ *  {@link #follow} and {@link #stream()} keep polling, waking up on
+ *  {@link WatchService} notifications for the file's directory, or after the
+ *  poll interval on filesystems that don't send any.
+ *
+ * If the file shrinks below the offset read so far it is taken to have been
+ *  truncated, and is read again from the start. If a different file turns
+ *  up at the same path (log rotation), whatever was appended to the old one
+ *  is read first, then the new one is read from the start.
+ *
+ * With a delimiter, only whole records are handed over: bytes after the
+ *  last delimiter wait until the rest of their record is written (unless a
+ *  single record is longer than {@value #MAX_CHUNK_SIZE} bytes, in which
+ *  case it is handed over in pieces).
+ *
+ * The offset can be saved to a file with {@link #setOffsetFile}, so that a
+ *  follower started later carries on where this one left off. Everything
+ *  handed over is delivered at least once: after a crash, data delivered
+ *  since the offset was last saved is delivered again.
+ *
+ * @author Nelson Crosby
+ */
+public class FileFollower implements Closeable {
+    /** Why the follower went back to the start of the file */
+    public enum ResetReason {
+        /** The file got shorter than what had already been read */
+        TRUNCATED,
+        /** A different file was found at the path */
+        ROTATED
+    }
+
+    /**
+     * Receives what a {@link FileFollower} reads.
+     */
+    public interface Listener {
+        /**
+         * Called with each piece of newly appended data, in order.
+         *
+         * @param data The new bytes, which the listener may keep
+         * @param offset Where {@code data} starts in the file
+         * @throws IOException To stop the poll; the data will be delivered again
+         */
+        void onData(ByteSlice data, long offset) throws IOException;
+
+        /**
+         * Called before reading a file again from the start.
+         *
+         * @param reason Why
+         * @throws IOException To stop the poll
+         */
+        default void onReset(ResetReason reason) throws IOException {
+        }
+    }
+
+    /** The most bytes handed over in one piece */
+    public static final int MAX_CHUNK_SIZE = 1 << 20;
+
+    private static final int NO_DELIMITER = -1;
+
+    private final File file;
+    private final int delimiter;
+    private long pollMillis = 1000;
+
+    // Guarded by this
+    private FileChannel channel;
+    /** Identifies the file {@link #channel} has open */
+    private String openIdentity;
+    /** Identity of the file the saved offset was for, until it's opened */
+    private String expectedIdentity;
+    private long offset;
+    private File offsetFile;
+
+    private volatile boolean closed;
+    private WatchService watcher;
+    private boolean watcherCreated;
+
+    /**
+     * Creates a follower that reads {@code file} from the start, handing over
+     *  whatever bytes are there.
+     *
+     * @param file The {@link File} to follow, which needn't exist yet
+     */
+    public FileFollower(File file) {
+        this(file, NO_DELIMITER);
+    }
+
+    /**
+     * Creates a follower that reads {@code file} from the start, handing over
+     *  whole records, each ending with {@code delimiter}.
+     *
+     * @param file The {@link File} to follow, which needn't exist yet
+     * @param delimiter The byte that ends each record (such as {@code '\n'})
+     */
+    public FileFollower(File file, byte delimiter) {
+        this(file, delimiter & 0xff);
+    }
+
+    private FileFollower(File file, int delimiter) {
+        this.file = file;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Sets how long {@link #follow} and {@link #stream()} wait for a change
+     *  notification before polling anyway.
+     *
+     * @param interval The longest wait
+     * @param unit The unit of {@code interval}
+     */
+    public void setPollInterval(long interval, TimeUnit unit) {
+        pollMillis = Math.max(1, unit.toMillis(interval));
+    }
+
+    /**
+     * Saves the offset into {@code offsetFile} after every poll that moves
+     *  it. If {@code offsetFile} already holds an offset for the file being
+     *  followed, reading continues from there; if the file has been rotated
+     *  or truncated since, it's read from the start instead.
+     *
+     * @param offsetFile Where to keep the offset
+     * @throws IOException If {@code offsetFile} exists but can't be read
+     */
+    public synchronized void setOffsetFile(File offsetFile) throws IOException {
+        this.offsetFile = offsetFile;
+        if (!offsetFile.exists())
+            return;
+        String[] saved = StreamUtils.readWholeFileAsString(offsetFile, StandardCharsets.UTF_8).split("\n");
+        if (saved.length < 2)
+            return;
+        try {
+            seek(Long.parseLong(saved[0].trim()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed offset file " + offsetFile, e);
+        }
+        expectedIdentity = saved[1];
+    }
+
+    /**
+     * Moves the offset; the next poll reads from there.
+     *
+     * @param offset Where to read from next
+     */
+    public synchronized void seek(long offset) {
+        if (offset < 0)
+            throw new IllegalArgumentException("offset must not be negative: " + offset);
+        this.offset = offset;
+    }
+
+    /**
+     * Moves the offset to the current end of the file, so only data
+     *  appended from now on is handed over.
+     */
+    public synchronized void seekToEnd() {
+        offset = file.length();
+    }
+
+    /**
+     * @return How far into the file has been handed over
+     */
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Reads everything appended since the last poll and hands it to
+     *  {@code listener}, on the calling thread.
+     *
+     * @param listener The {@link Listener} to give the data to
+     * @return The number of bytes handed over
+     * @throws IOException If the file can't be read, or {@code listener} fails
+     * @throws IllegalStateException If this follower has been closed
+     */
+    public long poll(Listener listener) throws IOException {
+        long polled = pollIfOpen(listener);
+        if (polled < 0)
+            throw new IllegalStateException("FileFollower has been closed");
+        return polled;
+    }
+
+    /**
+     * Polls repeatedly on the calling thread until this follower is closed
+     *  (from another thread), waiting for changes in between.
+     *
+     * @param listener The {@link Listener} to give the data to
+     * @throws IOException If the file can't be read, or {@code listener}
+     *  fails, or the thread is interrupted
+     */
+    public void follow(Listener listener) throws IOException {
+        long polled;
+        while ((polled = pollIfOpen(listener)) >= 0) {
+            if (polled == 0)
+                awaitChange();
+        }
+    }
+
+    /**
+     * Creates a stream of the data appended to the file, which blocks
+     *  waiting for more, and only ends once this follower is closed. Resets
+     *  aren't reported.
+     *
+     * @return An endless {@link Stream} of newly appended data
+     * @throws UncheckedIOException If reading fails while the stream is used
+     */
+    public Stream<ByteSlice> stream() {
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<ByteSlice>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private final ArrayDeque<ByteSlice> pending = new ArrayDeque<>();
+
+            @Override
+            public boolean tryAdvance(Consumer<? super ByteSlice> action) {
+                try {
+                    while (pending.isEmpty()) {
+                        long polled = pollIfOpen((data, offset) -> pending.add(data));
+                        if (polled < 0)
+                            return false;
+                        if (polled == 0)
+                            awaitChange();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                action.accept(pending.poll());
+                return true;
+            }
+        }, false);
+    }
+
+    /**
+     * Stops following. A {@link #follow} or {@link #stream()} in progress
+     *  returns once its current poll (if any) is done.
+     *
+     * @throws IOException If the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        WatchService currentWatcher;
+        synchronized (this) {
+            currentWatcher = watcher;
+            watcherCreated = true;
+        }
+        try {
+            if (currentWatcher != null)
+                currentWatcher.close();
+        } finally {
+            synchronized (this) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of bytes handed over, or -1 if closed
+     */
+    private synchronized long pollIfOpen(Listener listener) throws IOException {
+        if (closed)
+            return -1;
+        long start = offset;
+        boolean reset = false;
+        long delivered = 0;
+
+        String identity = identify();
+        if (channel != null && !openIdentity.equals(identity)) {
+            // Rotated: finish off the old file before moving on
+            delivered += drain(listener);
+            if (identity != null) {
+                channel.close();
+                channel = null;
+                offset = 0;
+                reset = true;
+                listener.onReset(ResetReason.ROTATED);
+            }
+        }
+        if (channel == null && identity != null) {
+            if (expectedIdentity != null && !expectedIdentity.equals(identity)) {
+                // Rotated while nobody was following
+                offset = 0;
+                reset = true;
+                listener.onReset(ResetReason.ROTATED);
+            }
+            expectedIdentity = null;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            openIdentity = identity;
+        }
+        if (channel != null && openIdentity.equals(identity)) {
+            if (channel.size() < offset) {
+                offset = 0;
+                reset = true;
+                listener.onReset(ResetReason.TRUNCATED);
+            }
+            delivered += drain(listener);
+        }
+
+        if (offsetFile != null && (reset || offset != start))
+            saveOffset();
+        return delivered;
+    }
+
+    /**
+     * Hands over everything from {@link #offset} to the end of the open file.
+     */
+    private long drain(Listener listener) throws IOException {
+        long total = 0;
+        while (true) {
+            long available = channel.size() - offset;
+            if (available <= 0)
+                return total;
+            byte[] chunk = new byte[(int) Math.min(available, MAX_CHUNK_SIZE)];
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0)
+                    break;
+            }
+            int read = buffer.position();
+            if (read == 0)
+                return total;
+
+            int length = read;
+            if (delimiter != NO_DELIMITER) {
+                int end = read;
+                while (end > 0 && chunk[end - 1] != (byte) delimiter)
+                    end--;
+                if (end > 0)
+                    length = end;
+                else if (read < MAX_CHUNK_SIZE)
+                    // The record isn't finished yet
+                    return total;
+            }
+            listener.onData(new ByteSlice(chunk, 0, length), offset);
+            offset += length;
+            total += length;
+            if (length < read)
+                return total;
+        }
+    }
+
+    /**
+     * @return Something that tells apart different files at the path (the
+     *  file key, or the creation time where there isn't one), or
+     *  {@code null} if there's no file there
+     */
+    private String identify() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        Object key = attributes.fileKey();
+        return key != null ? key.toString() : attributes.creationTime().toString();
+    }
+
+    private void saveOffset() throws IOException {
+        String identity = openIdentity != null ? openIdentity : "";
+        StreamUtils.writeToFileAtomic((offset + "\n" + identity + "\n").getBytes(StandardCharsets.UTF_8),
+                offsetFile, Durability.DATA);
+    }
+
+    /**
+     * Waits for the file's directory to change, or for the poll interval,
+     *  whichever comes first.
+     */
+    private void awaitChange() throws IOException {
+        WatchService currentWatcher = getWatcher();
+        try {
+            if (currentWatcher == null) {
+                Thread.sleep(pollMillis);
+                return;
+            }
+            WatchKey key = currentWatcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                key.pollEvents();
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed while waiting
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while following " + file);
+        }
+    }
+
+    /**
+     * @return A watcher for the file's directory, or {@code null} if there
+     *  can't be one (in which case polling alone has to do)
+     */
+    private synchronized WatchService getWatcher() {
+        if (!watcherCreated) {
+            watcherCreated = true;
+            Path directory = file.getAbsoluteFile().getParentFile().toPath();
+            try {
+                watcher = directory.getFileSystem().newWatchService();
+                directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException | UnsupportedOperationException e) {
+                if (watcher != null) {
+                    try {
+                        watcher.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                watcher = null;
+            }
+        }
+        return watcher;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends records to a file durably, sharing each flush to disk between
+ *  all the writes that were waiting for one ("group commit").
+ *
+ * {@link #write} only returns once its data has been flushed according to
+ *  the {@link Durability} level. When many threads write at once, one of
+ *  them flushes while the others keep appending; the next flush then covers
+ *  all of those appends together, so the cost of a flush is shared instead
+ *  of paid by every write.
+ *
+ * @author Nelson Crosby
+ */
+public class GroupCommitWriter implements Closeable {
+    private final FileChannel channel;
+    private final Durability durability;
+
+    /** Bytes appended so far */
+    private long written;
+    /** Bytes known to be flushed */
+    private long synced;
+    private boolean syncing;
+    private IOException failure;
+    private long syncCount;
+
+    /**
+     * Opens {@code file} for appending, creating it if needed.
+     *
+     * @param file The {@link File} to append to
+     * @param durability How each write should be flushed
+     * @throws IOException If the file can't be opened
+     */
+    public GroupCommitWriter(File file, Durability durability) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        boolean existed = file.exists();
+        channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+        this.durability = durability;
+        if (!existed)
+            durability.syncDirectory(path.getParent());
+    }
+
+    /**
+     * Wrapper for {@link #write(byte[], int, int)} that writes all of
+     *  {@code record}.
+     *
+     * @param record The bytes to append
+     * @throws IOException
+     */
+    public void write(byte[] record) throws IOException {
+        write(record, 0, record.length);
+    }
+
+    /**
+     * Appends {@code length} bytes of {@code record}, starting at
+     *  {@code offset}, and waits until they have been flushed.
+     *
+     * Each record is appended in one piece, so records from different
+     *  threads are never interleaved.
+     *
+     * @param record The array holding the bytes to append
+     * @param offset The index of the first byte to append
+     * @param length The number of bytes to append
+     * @throws IOException If the write or any flush fails; once a flush has
+     *  failed, every later write fails too
+     */
+    public void write(byte[] record, int offset, int length) throws IOException {
+        long end;
+        synchronized (this) {
+            checkUsable();
+            ByteBuffer buffer = ByteBuffer.wrap(record, offset, length);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            written += length;
+            end = written;
+        }
+        awaitSync(end);
+    }
+
+    /**
+     * @return The number of flushes done so far; at most the number of writes
+     */
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * Closes the file. Writes must all have returned first.
+     *
+     * @throws IOException See {@link FileChannel#close()}
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void awaitSync(long end) throws IOException {
+        if (durability == Durability.NONE)
+            return;
+        while (true) {
+            long target;
+            synchronized (this) {
+                while (true) {
+                    checkUsable();
+                    if (synced >= end)
+                        return;
+                    if (!syncing)
+                        break;
+                    // Someone else is flushing; wait and see if it covered us
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for a flush");
+                    }
+                }
+                // Become the leader, and flush everything appended so far
+                syncing = true;
+                target = written;
+            }
+
+            // Other threads can keep appending while this runs
+            IOException error = null;
+            boolean flushed = false;
+            try {
+                durability.sync(channel);
+                flushed = true;
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                // Even on an unexpected exception, so waiters can take over
+                synchronized (this) {
+                    syncing = false;
+                    syncCount++;
+                    if (error != null)
+                        failure = error;
+                    else if (flushed)
+                        synced = Math.max(synced, target);
+                    notifyAll();
+                }
+            }
+            if (error != null)
+                throw error;
+        }
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null)
+            throw new IOException("An earlier flush failed", failure);
+    }
+}
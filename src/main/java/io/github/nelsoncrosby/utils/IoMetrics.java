@@ -0,0 +1,372 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional counters and histograms for the time {@link StreamUtils} spends
+ *  copying, reading and writing.
+ *
+ * Metrics are off until {@link #enable()} is called. While off, each
+ *  {@link StreamUtils} call only pays for one volatile read; while on, it
+ *  updates a few {@link LongAdder}s once per call (never per block), and
+ *  doesn't allocate.
+ *
+ * Calls that only wrap another measured call (such as
+ *  {@link StreamUtils#readWholeFiles}, whose per-file reads are measured
+ *  one by one) are counted through that call. Not measured at all are
+ *  {@link StreamUtils#copyStreamsPipelined}, the digesting methods and
+ *  {@link StreamUtils#mapWholeFile}, none of which move the data through
+ *  a single copy loop that could be timed like the others.
+ *
+ * Histograms use power-of-two buckets: bucket {@code i} counts values from
+ *  {@code 2^i} up to (but not including) {@code 2^(i+1)}, with bucket 0
+ *  also counting 0.
+ *
+ * @author Nelson Crosby
+ */
+public class IoMetrics {
+    /** The kinds of call that are measured */
+    public enum Operation {
+        /** {@link StreamUtils#copyStreams} and {@link StreamUtils#copyChannels} */
+        COPY,
+        /**
+         * The {@code readWholeStream} and {@code readWholeFile} methods,
+         *  including the segmented, slice and {@code AsString} ones
+         */
+        READ,
+        /**
+         * The {@code writeToStream} and {@code writeToFile} methods,
+         *  {@link StreamUtils#writeToFileAtomic}, {@link StreamUtils#writeToFileAt}
+         *  and {@link StreamUtils#appendToFile}
+         */
+        WRITE
+    }
+
+    /**
+     * Called after every measured call, on the thread that made it.
+     *  Implementations should be quick, and must be thread-safe.
+     */
+    public interface Listener {
+        /**
+         * @param operation The kind of call
+         * @param bytes The number of bytes moved, or 0 if the call failed
+         * @param nanos How long the call took
+         * @param blockSize The block size the call used, or 0 for a
+         *  gathering write
+         * @param failed {@code true} if the call threw an exception
+         */
+        void onOperation(Operation operation, long bytes, long nanos, int blockSize, boolean failed);
+    }
+
+    /** The number of histogram buckets; enough for any long */
+    public static final int BUCKETS = 64;
+
+    private static volatile IoMetrics active;
+
+    private final Stats[] stats = new Stats[Operation.values().length];
+    private volatile Listener[] listeners = new Listener[0];
+
+    private IoMetrics() {
+        for (int i = 0; i < stats.length; i++)
+            stats[i] = new Stats();
+    }
+
+    /**
+     * Turns metrics on, if they aren't already.
+     *
+     * @return The instance that is now collecting metrics
+     */
+    public static synchronized IoMetrics enable() {
+        if (active == null)
+            active = new IoMetrics();
+        return active;
+    }
+
+    /**
+     * Turns metrics off. Anything collected so far is kept in the instance
+     *  returned by {@link #enable()}, but a later {@code enable()} starts a
+     *  fresh one.
+     */
+    public static synchronized void disable() {
+        active = null;
+    }
+
+    /**
+     * @return The instance collecting metrics, or {@code null} if they are off
+     */
+    public static IoMetrics current() {
+        return active;
+    }
+
+    /**
+     * Records one call. Used by {@link StreamUtils}.
+     *
+     * @param operation The kind of call
+     * @param bytes The number of bytes moved, which must be 0 if the call failed
+     * @param startNanos The value of {@link System#nanoTime()} when the call started
+     * @param blockSize The block size the call used
+     * @param failed {@code true} if the call threw an exception
+     */
+    void record(Operation operation, long bytes, long startNanos, int blockSize, boolean failed) {
+        long nanos = System.nanoTime() - startNanos;
+        Stats s = stats[operation.ordinal()];
+        s.calls.increment();
+        s.bytes.add(bytes);
+        s.nanos.add(nanos);
+        if (failed)
+            s.errors.increment();
+        s.latency[bucket(nanos)].increment();
+        if (nanos > 0)
+            s.throughput[bucket((long) (bytes * 1e9 / nanos))].increment();
+        int sizeBucket = bucket(blockSize);
+        s.blockSizeCalls[sizeBucket].increment();
+        s.blockSizeBytes[sizeBucket].add(bytes);
+
+        for (Listener listener : listeners)
+            listener.onOperation(operation, bytes, nanos, blockSize, failed);
+    }
+
+    /**
+     * @param listener A {@link Listener} to call after every measured call
+     */
+    public synchronized void addListener(Listener listener) {
+        Listener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * @param listener A {@link Listener} previously passed to {@link #addListener}
+     */
+    public synchronized void removeListener(Listener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                Listener[] updated = new Listener[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, updated.length - i);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param operation The kind of call
+     * @return The number of calls recorded
+     */
+    public long getCalls(Operation operation) {
+        return stats[operation.ordinal()].calls.sum();
+    }
+
+    /**
+     * @param operation The kind of call
+     * @return The number of bytes moved by all recorded calls
+     */
+    public long getBytes(Operation operation) {
+        return stats[operation.ordinal()].bytes.sum();
+    }
+
+    /**
+     * @param operation The kind of call
+     * @return The total time spent in recorded calls, in nanoseconds
+     */
+    public long getNanos(Operation operation) {
+        return stats[operation.ordinal()].nanos.sum();
+    }
+
+    /**
+     * @param operation The kind of call
+     * @return The number of recorded calls that threw an exception
+     */
+    public long getErrors(Operation operation) {
+        return stats[operation.ordinal()].errors.sum();
+    }
+
+    /**
+     * @param operation The kind of call
+     * @return The number of calls in each bucket of latency in nanoseconds
+     */
+    public long[] getLatencyHistogram(Operation operation) {
+        return sums(stats[operation.ordinal()].latency);
+    }
+
+    /**
+     * @param operation The kind of call
+     * @return The number of calls in each bucket of throughput in bytes per second
+     */
+    public long[] getThroughputHistogram(Operation operation) {
+        return sums(stats[operation.ordinal()].throughput);
+    }
+
+    /**
+     * @param operation The kind of call
+     * @return The number of calls in each bucket of block size
+     */
+    public long[] getBlockSizeCalls(Operation operation) {
+        return sums(stats[operation.ordinal()].blockSizeCalls);
+    }
+
+    /**
+     * @param operation The kind of call
+     * @return The number of bytes moved in each bucket of block size
+     */
+    public long[] getBlockSizeBytes(Operation operation) {
+        return sums(stats[operation.ordinal()].blockSizeBytes);
+    }
+
+    /**
+     * Exposes the totals for each {@link Operation} over JMX, under
+     *  {@code io.github.nelsoncrosby.utils:type=IoMetrics}. Calling this
+     *  again does nothing.
+     *
+     * @throws JMException If registration fails
+     */
+    public static void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new MBean(),
+                    new ObjectName("io.github.nelsoncrosby.utils:type=IoMetrics"));
+        } catch (InstanceAlreadyExistsException ignored) {
+        }
+    }
+
+    /**
+     * The JMX view of {@link IoMetrics}. Every value is 0 while metrics are
+     *  off.
+     */
+    public interface IoMetricsMXBean {
+        boolean isEnabled();
+
+        long getCopyCalls();
+
+        long getCopyBytes();
+
+        long getCopyErrors();
+
+        long getReadCalls();
+
+        long getReadBytes();
+
+        long getReadErrors();
+
+        long getWriteCalls();
+
+        long getWriteBytes();
+
+        long getWriteErrors();
+    }
+
+    private static class MBean implements IoMetricsMXBean {
+        private long get(Operation operation, int what) {
+            IoMetrics metrics = active;
+            if (metrics == null)
+                return 0;
+            switch (what) {
+                case 0:
+                    return metrics.getCalls(operation);
+                case 1:
+                    return metrics.getBytes(operation);
+                default:
+                    return metrics.getErrors(operation);
+            }
+        }
+
+        public boolean isEnabled() {
+            return active != null;
+        }
+
+        public long getCopyCalls() {
+            return get(Operation.COPY, 0);
+        }
+
+        public long getCopyBytes() {
+            return get(Operation.COPY, 1);
+        }
+
+        public long getCopyErrors() {
+            return get(Operation.COPY, 2);
+        }
+
+        public long getReadCalls() {
+            return get(Operation.READ, 0);
+        }
+
+        public long getReadBytes() {
+            return get(Operation.READ, 1);
+        }
+
+        public long getReadErrors() {
+            return get(Operation.READ, 2);
+        }
+
+        public long getWriteCalls() {
+            return get(Operation.WRITE, 0);
+        }
+
+        public long getWriteBytes() {
+            return get(Operation.WRITE, 1);
+        }
+
+        public long getWriteErrors() {
+            return get(Operation.WRITE, 2);
+        }
+    }
+
+    private static int bucket(long value) {
+        return value <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] result = new long[adders.length];
+        for (int i = 0; i < adders.length; i++)
+            result[i] = adders[i].sum();
+        return result;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] result = new LongAdder[count];
+        for (int i = 0; i < count; i++)
+            result[i] = new LongAdder();
+        return result;
+    }
+
+    private static class Stats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder[] latency = adders(BUCKETS);
+        final LongAdder[] throughput = adders(BUCKETS);
+        final LongAdder[] blockSizeCalls = adders(BUCKETS);
+        final LongAdder[] blockSizeBytes = adders(BUCKETS);
+    }
+}
@@ -0,0 +1,885 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * A small embedded key-value store, kept as a memory-mapped append-only log
+ *  with an in-memory hash index.
+ *
+ * Every {@link #put} or {@link #delete} appends a record to the log and
+ *  updates the index, which maps each key to where its latest value sits in
+ *  the mapped log. {@link #get} is then just a hash lookup and a copy out of
+ *  memory, without any system calls, and can run alongside writes and
+ *  compaction without locking.
+ *
+ * Overwritten and deleted values are left in the log until it is compacted,
+ *  which happens in the background once the garbage outweighs the live data
+ *  (or when {@link #compact} is called): the live records are copied into a
+ *  new log, which then replaces the old one.
+ *
+ * Each record carries a checksum, so when a store is reopened after a crash
+ *  the log is only replayed up to the last intact record, and anything
+ *  after it (a torn write) is discarded. On {@link #close} the index is
+ *  saved as a snapshot, which lets the next open skip replaying the log.
+ *
+ * The store's files are kept in their own directory, which only one
+ *  {@code KeyValueStore} may have open at a time.
+ *
+ * @author Nelson Crosby
+ */
+public class KeyValueStore implements Closeable {
+    /** The size of each mapped piece of the log; also limits the size of a record */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+    /** The least amount of garbage in the log before it is compacted automatically */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 1 << 24;
+
+    /** "NCKV" */
+    private static final int LOG_MAGIC = 0x4e434b56;
+    /** "NCKS" */
+    private static final int SNAPSHOT_MAGIC = 0x4e434b53;
+    private static final int VERSION = 1;
+    /** Magic and version */
+    private static final int LOG_HEADER_SIZE = 8;
+    /** Checksum, key length and value length */
+    private static final int RECORD_HEADER_SIZE = 12;
+    /** The key length of a record that pads out the rest of a segment */
+    private static final int PADDING = -1;
+    /** The value length of a record that deletes its key */
+    private static final int TOMBSTONE = -1;
+
+    private static final String CURRENT_FILE = "CURRENT";
+    private static final String SNAPSHOT_FILE = "SNAPSHOT";
+    private static final String LOG_PREFIX = "log-";
+
+    private static final ExecutorService COMPACTOR = createCompactor();
+
+    private final File directory;
+    private final Durability durability;
+    private final int segmentSize;
+    private final long compactionThreshold;
+
+    private volatile ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    // Everything below is guarded by this
+    private Log log;
+    /** Old logs, which stay mapped until the last reader still using them is done */
+    private final List<Log> retired = new ArrayList<>();
+    /** Bytes of the log taken up by records still in the index */
+    private long liveBytes;
+    private CompletableFuture<Void> compaction;
+
+    /**
+     * Opens (or creates) the store called {@code storeName} in the private
+     *  directory for {@code appName}, leaving writes to be flushed by the OS.
+     *
+     * @param appName The name of the app, passed to {@link Sys#generatePrivateDirectory}
+     * @param storeName The name of the store's directory within that
+     * @return The opened store
+     * @throws IOException If the private directory can't be created, or
+     *  the store can't be opened
+     */
+    public static KeyValueStore open(String appName, String storeName) throws IOException {
+        File directory = Sys.getPrivateFile(appName, storeName);
+        if (directory == null)
+            throw new IOException("Can't create a private directory for " + appName);
+        return new KeyValueStore(directory, Durability.NONE);
+    }
+
+    /**
+     * Opens (or creates) a store in {@code directory}.
+     *
+     * With {@link Durability#NONE}, writes survive the process crashing,
+     *  but might not survive the whole system going down; the other levels
+     *  flush each write to the device before it returns.
+     *
+     * @param directory The directory holding the store's files
+     * @param durability How each write should be flushed
+     * @throws IOException If the store can't be opened or recovered
+     */
+    public KeyValueStore(File directory, Durability durability) throws IOException {
+        this(directory, durability, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    KeyValueStore(File directory, Durability durability, int segmentSize, long compactionThreshold)
+            throws IOException {
+        if (segmentSize < LOG_HEADER_SIZE + RECORD_HEADER_SIZE + 1)
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+
+        File current = new File(directory, CURRENT_FILE);
+        int generation = current.exists() ? readCurrent() : 0;
+        deleteLogsExcept(generation);
+
+        log = Log.open(logFile(generation), generation, segmentSize);
+        try {
+            long limit = log.end;
+            long from = loadSnapshot(limit);
+            final ConcurrentHashMap<String, Entry> recovered = index;
+            long end = log.scan(from, limit, (key, position, length, size) -> {
+                if (length == TOMBSTONE)
+                    recovered.remove(key);
+                else
+                    recovered.put(key, new Entry(log, position, length, size));
+            });
+            // Anything after the last intact record is a torn write
+            log.discardTail(end, limit);
+            log.force(durability);
+            if (!current.exists())
+                writeCurrent(generation);
+            liveBytes = countLiveBytes(recovered);
+        } catch (IOException | RuntimeException e) {
+            log.close(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up the value stored for {@code key}.
+     *
+     * @param key The key to look up
+     * @return A copy of the value, or {@code null} if there isn't one
+     */
+    public byte[] get(String key) {
+        checkOpen();
+        while (true) {
+            Entry entry = index.get(key);
+            if (entry == null)
+                return null;
+            if (entry.log.acquire()) {
+                try {
+                    return entry.read();
+                } finally {
+                    entry.log.release();
+                }
+            }
+            // Either the store was closed, or compaction retired the log
+            //  after the lookup and the index has moved on
+            checkOpen();
+        }
+    }
+
+    /**
+     * @param key The key to look for
+     * @return {@code true} if a value is stored for {@code key}
+     */
+    public boolean contains(String key) {
+        checkOpen();
+        return index.containsKey(key);
+    }
+
+    /**
+     * @return The keys currently stored, as an unmodifiable copy
+     */
+    public Set<String> keys() {
+        checkOpen();
+        return Collections.unmodifiableSet(new HashSet<>(index.keySet()));
+    }
+
+    /**
+     * @return The number of keys currently stored
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Stores {@code value} for {@code key}, replacing any value already there.
+     *
+     * @param key The key, which must not be empty
+     * @param value The value to store
+     * @throws IOException If the log can't be grown or flushed
+     * @throws IllegalArgumentException If the record wouldn't fit in a segment
+     */
+    public synchronized void put(String key, byte[] value) throws IOException {
+        checkOpen();
+        if (value == null)
+            throw new NullPointerException("value");
+        Entry entry = log.append(encodeKey(key), value);
+        log.force(durability);
+        liveBytes += entry.size;
+        forget(index.put(key, entry));
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes the value stored for {@code key}, if there is one.
+     *
+     * @param key The key to remove
+     * @return {@code true} if there was a value to remove
+     * @throws IOException If the log can't be grown or flushed
+     */
+    public synchronized boolean delete(String key) throws IOException {
+        checkOpen();
+        if (!index.containsKey(key))
+            return false;
+        log.append(encodeKey(key), null);
+        log.force(durability);
+        forget(index.remove(key));
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Flushes everything written so far to the device, regardless of this
+     *  store's {@link Durability}.
+     *
+     * @throws IOException See {@link FileChannel#force}
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        log.force(Durability.FULL);
+    }
+
+    /**
+     * Starts compacting the log in the background, unless that's already
+     *  happening. Reads and writes carry on as normal in the meantime.
+     *
+     * @return A future that completes once the compacted log is in use
+     */
+    public synchronized CompletableFuture<Void> compact() {
+        checkOpen();
+        if (compaction == null || compaction.isDone()) {
+            final CompletableFuture<Void> result = new CompletableFuture<>();
+            compaction = result;
+            COMPACTOR.execute(() -> {
+                try {
+                    runCompaction();
+                    result.complete(null);
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+        return compaction;
+    }
+
+    /**
+     * @return The number of bytes in the log, including garbage
+     */
+    public synchronized long getLogBytes() {
+        return log.end;
+    }
+
+    /**
+     * @return The number of bytes in the log that hold live values
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Waits for any compaction to finish, saves a snapshot of the index and
+     *  closes the log. Reads already in progress are allowed to finish, and
+     *  the log is unmapped once they have.
+     *
+     * @throws IOException If the log can't be flushed or the snapshot written
+     */
+    @Override
+    public void close() throws IOException {
+        CompletableFuture<Void> pending;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            pending = compaction;
+        }
+        if (pending != null) {
+            try {
+                pending.join();
+            } catch (CompletionException ignored) {
+                // The old log is still in use, which is fine
+            }
+        }
+
+        byte[] snapshot;
+        synchronized (this) {
+            try {
+                log.force(Durability.FULL);
+                snapshot = createSnapshot(log, index);
+            } finally {
+                // Retired logs unmap themselves once their last reader is done
+                retired.clear();
+                log.retire();
+                log.closeChannel(log.isUnmapped());
+            }
+        }
+        StreamUtils.writeToFileAtomic(snapshot, new File(directory, SNAPSHOT_FILE), durability);
+    }
+
+    private void runCompaction() throws IOException {
+        Log old;
+        long from;
+        Map<String, Entry> source;
+        synchronized (this) {
+            old = log;
+            from = old.end;
+            source = index;
+        }
+
+        final Log next = Log.open(logFile(old.generation + 1), old.generation + 1, segmentSize);
+        byte[] snapshot;
+        try {
+            // Copy everything live, without holding up writers
+            final ConcurrentHashMap<String, Entry> copied = new ConcurrentHashMap<>();
+            for (Map.Entry<String, Entry> live : source.entrySet())
+                copied.put(live.getKey(), next.append(encodeKey(live.getKey()), live.getValue().read()));
+
+            synchronized (this) {
+                // Catch up with anything written since, then switch over
+                old.scan(from, old.end, (key, position, length, size) -> {
+                    if (length == TOMBSTONE) {
+                        next.append(encodeKey(key), null);
+                        copied.remove(key);
+                    } else {
+                        copied.put(key, next.append(encodeKey(key), old.read(position, length)));
+                    }
+                });
+                next.force(Durability.FULL);
+                snapshot = createSnapshot(next, copied);
+                // Renaming CURRENT is what commits the new log, so nothing after it may fail
+                writeCurrent(next.generation);
+                log = next;
+                index = copied;
+                liveBytes = countLiveBytes(copied);
+                retired.removeIf(Log::isUnmapped);
+                retired.add(old);
+            }
+        } catch (IOException | RuntimeException e) {
+            next.close(false);
+            // CURRENT may already have been renamed, if flushing the directory failed
+            if (restoreCurrent(old.generation, e))
+                next.file.delete();
+            throw e;
+        }
+
+        old.closeChannel(false);
+        // Unmaps it now, or once the last reader that found it in the old index is done
+        old.retire();
+        // May fail on Windows while the old log is still mapped; it's tidied up on the next open then
+        old.file.delete();
+        StreamUtils.writeToFileAtomic(snapshot, new File(directory, SNAPSHOT_FILE), durability);
+    }
+
+    /**
+     * @return The number of replaced logs still mapped, waiting on readers
+     */
+    synchronized int getRetiredLogs() {
+        retired.removeIf(Log::isUnmapped);
+        return retired.size();
+    }
+
+    private void compactIfNeeded() {
+        long garbage = log.end - LOG_HEADER_SIZE - liveBytes;
+        if (garbage >= compactionThreshold && garbage > liveBytes)
+            compact();
+    }
+
+    private void forget(Entry replaced) {
+        if (replaced != null && replaced.log == log)
+            liveBytes -= replaced.size;
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("KeyValueStore has been closed");
+    }
+
+    private File logFile(int generation) {
+        return new File(directory, LOG_PREFIX + generation);
+    }
+
+    private int readCurrent() throws IOException {
+        File current = new File(directory, CURRENT_FILE);
+        try {
+            return Integer.parseInt(StreamUtils.readWholeFileAsString(current, StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt " + current, e);
+        }
+    }
+
+    /** Package-private so that tests can make it fail */
+    void writeCurrent(int generation) throws IOException {
+        StreamUtils.writeToFileAtomic(Integer.toString(generation).getBytes(StandardCharsets.UTF_8),
+                new File(directory, CURRENT_FILE), Durability.FULL);
+    }
+
+    /**
+     * Makes sure CURRENT still names {@code generation} after a compaction
+     *  failed, putting it back if the compaction got as far as renaming it.
+     *
+     * @return {@code true} if CURRENT is known to name {@code generation},
+     *  so the new log can safely be deleted
+     */
+    private boolean restoreCurrent(int generation, Exception failure) {
+        try {
+            if (readCurrent() != generation)
+                writeCurrent(generation);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+            return false;
+        }
+    }
+
+    /**
+     * Removes logs left behind by an interrupted compaction, or that
+     *  couldn't be deleted at the time.
+     */
+    private void deleteLogsExcept(int generation) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        String keep = LOG_PREFIX + generation;
+        for (File file : files) {
+            if (file.getName().startsWith(LOG_PREFIX) && !file.getName().equals(keep))
+                file.delete();
+        }
+    }
+
+    /**
+     * Serialises {@code index}, which must match the (flushed) {@code log}.
+     */
+    private static byte[] createSnapshot(Log log, Map<String, Entry> index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(log.generation);
+        out.writeLong(log.end);
+        out.writeInt(index.size());
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            byte[] key = encodeKey(entry.getKey());
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeLong(entry.getValue().position);
+            out.writeInt(entry.getValue().length);
+            out.writeInt(entry.getValue().size);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Fills the index from the snapshot, if there's a usable one.
+     *
+     * @param limit The length of the log
+     * @return Where to carry on replaying the log from
+     */
+    private long loadSnapshot(long limit) throws IOException {
+        File file = new File(directory, SNAPSHOT_FILE);
+        if (!file.isFile())
+            return LOG_HEADER_SIZE;
+        byte[] bytes = StreamUtils.readWholeFileSlice(file).toByteArray();
+        if (bytes.length < 8)
+            return LOG_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong())
+            return LOG_HEADER_SIZE;
+
+        DataInputStream in = new DataInputStream(new ByteSlice(bytes, 0, bytes.length - 8).toInputStream());
+        if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != log.generation)
+            return LOG_HEADER_SIZE;
+        long end = in.readLong();
+        if (end < LOG_HEADER_SIZE || end > limit)
+            return LOG_HEADER_SIZE;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            Entry entry = new Entry(log, in.readLong(), in.readInt(), in.readInt());
+            if (entry.position + entry.length > end) {
+                index.clear();
+                return LOG_HEADER_SIZE;
+            }
+            index.put(new String(key, StandardCharsets.UTF_8), entry);
+        }
+        return end;
+    }
+
+    private static long countLiveBytes(Map<String, Entry> index) {
+        long total = 0;
+        for (Entry entry : index.values())
+            total += entry.size;
+        return total;
+    }
+
+    private static byte[] encodeKey(String key) {
+        if (key.isEmpty())
+            throw new IllegalArgumentException("Keys must not be empty");
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ExecutorService createCompactor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, "ncutils-kv-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Where a value is in a log.
+     */
+    private static final class Entry {
+        final Log log;
+        /** The position of the value itself */
+        final long position;
+        final int length;
+        /** The size of the whole record */
+        final int size;
+
+        Entry(Log log, long position, int length, int size) {
+            this.log = log;
+            this.position = position;
+            this.length = length;
+            this.size = size;
+        }
+
+        byte[] read() {
+            return log.read(position, length);
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(String key, long position, int length, int size) throws IOException;
+    }
+
+    /**
+     * A log file, mapped in fixed-size segments. Records never cross a
+     *  segment boundary; the space left at the end of a segment is skipped
+     *  (and marked with a padding record, if there's room for one).
+     */
+    private static final class Log {
+        private static final int RETIRED = Integer.MIN_VALUE;
+
+        final File file;
+        final int generation;
+        final int segmentSize;
+        final FileChannel channel;
+        /** Replaced (never modified) as the log grows, so readers see a consistent array */
+        volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+        /** The number of readers using the log, with {@link #RETIRED} set once it's been replaced */
+        private final AtomicInteger users = new AtomicInteger();
+        /** Where the next record goes; guarded by the store */
+        long end;
+        private int firstDirty;
+        private boolean grown;
+
+        private Log(File file, int generation, int segmentSize, FileChannel channel) {
+            this.file = file;
+            this.generation = generation;
+            this.segmentSize = segmentSize;
+            this.channel = channel;
+        }
+
+        /**
+         * Opens a log, creating it if needed. {@link #end} is left at the
+         *  length of the file, for the caller to {@link #scan}.
+         */
+        static Log open(File file, int generation, int segmentSize) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            Log log = new Log(file, generation, segmentSize, channel);
+            try {
+                long size = channel.size();
+                log.ensureMapped(Math.max(size, LOG_HEADER_SIZE));
+                ByteBuffer header = log.segments[0].duplicate();
+                if (size < LOG_HEADER_SIZE) {
+                    // New, or its creation was interrupted
+                    header.putInt(LOG_MAGIC).putInt(VERSION);
+                    size = LOG_HEADER_SIZE;
+                } else if (header.getInt() != LOG_MAGIC || header.getInt() != VERSION) {
+                    throw new IOException(file + " is not a key-value store log");
+                }
+                log.end = size;
+                return log;
+            } catch (IOException | RuntimeException e) {
+                log.close(false);
+                throw e;
+            }
+        }
+
+        byte[] read(long position, int length) {
+            byte[] value = new byte[length];
+            if (length == 0)
+                return value;
+            ByteBuffer buffer = segments[(int) (position / segmentSize)].duplicate();
+            buffer.position((int) (position % segmentSize));
+            buffer.get(value);
+            return value;
+        }
+
+        /**
+         * Appends a record, or a tombstone if {@code value} is {@code null}.
+         *
+         * @return Where the value was written, or {@code null} for a tombstone
+         */
+        Entry append(byte[] key, byte[] value) throws IOException {
+            int valueLength = value == null ? TOMBSTONE : value.length;
+            long size = RECORD_HEADER_SIZE + (long) key.length + (value == null ? 0 : value.length);
+            if (size > segmentSize - LOG_HEADER_SIZE)
+                throw new IllegalArgumentException("Record of " + size + " bytes won't fit in a segment");
+
+            int remaining = segmentSize - (int) (end % segmentSize);
+            if (size > remaining) {
+                if (remaining >= RECORD_HEADER_SIZE)
+                    writeRecord(end, null, PADDING, null);
+                end += remaining;
+            }
+            ensureMapped(end + size);
+            long start = end;
+            writeRecord(start, key, valueLength, value);
+            end += size;
+            return value == null ? null
+                    : new Entry(this, start + RECORD_HEADER_SIZE + key.length, value.length, (int) size);
+        }
+
+        private void writeRecord(long position, byte[] key, int valueLength, byte[] value) {
+            ByteBuffer buffer = segments[(int) (position / segmentSize)].duplicate();
+            int start = (int) (position % segmentSize);
+            buffer.position(start + 4);
+            buffer.putInt(key == null ? PADDING : key.length).putInt(key == null ? 0 : valueLength);
+            if (key != null)
+                buffer.put(key);
+            if (value != null)
+                buffer.put(value);
+            // The checksum goes in last, so a partly written record never looks intact
+            buffer.putInt(start, checksum(buffer, start, buffer.position()));
+        }
+
+        /**
+         * Replays records from {@code from} up to {@code limit}, stopping at
+         *  the first one that isn't intact.
+         *
+         * @return The end of the last intact record
+         */
+        long scan(long from, long limit, RecordVisitor visitor) throws IOException {
+            long position = from;
+            while (true) {
+                int offset = (int) (position % segmentSize);
+                int remaining = segmentSize - offset;
+                if (remaining < RECORD_HEADER_SIZE) {
+                    position += remaining;
+                    continue;
+                }
+                if (position + RECORD_HEADER_SIZE > limit)
+                    return position;
+
+                ByteBuffer buffer = segments[(int) (position / segmentSize)].duplicate();
+                buffer.position(offset);
+                int crc = buffer.getInt();
+                int keyLength = buffer.getInt();
+                int valueLength = buffer.getInt();
+                if (keyLength == PADDING) {
+                    if (valueLength != 0 || crc != checksum(buffer, offset, buffer.position()))
+                        return position;
+                    position += remaining;
+                    continue;
+                }
+                if (keyLength <= 0 || valueLength < TOMBSTONE)
+                    return position;
+                long size = RECORD_HEADER_SIZE + (long) keyLength + Math.max(valueLength, 0);
+                if (size > remaining || position + size > limit
+                        || crc != checksum(buffer, offset, offset + (int) size))
+                    return position;
+
+                byte[] key = new byte[keyLength];
+                buffer.position(offset + RECORD_HEADER_SIZE);
+                buffer.get(key);
+                visitor.visit(new String(key, StandardCharsets.UTF_8),
+                        position + RECORD_HEADER_SIZE + keyLength, valueLength, (int) size);
+                position += size;
+            }
+        }
+
+        /**
+         * Zeroes everything from {@code end} to {@code limit}, so that new
+         *  records can't run into the remains of a torn one. Blocks that are
+         *  already zero (usually most of the last segment) are left alone.
+         */
+        void discardTail(long end, long limit) {
+            this.end = end;
+            byte[] block = new byte[4096];
+            byte[] zeroes = new byte[block.length];
+            long position = end;
+            while (position < limit) {
+                ByteBuffer buffer = segments[(int) (position / segmentSize)].duplicate();
+                buffer.position((int) (position % segmentSize));
+                int length = (int) Math.min(Math.min(block.length, buffer.remaining()), limit - position);
+                buffer.duplicate().get(block, 0, length);
+                for (int i = 0; i < length; i++) {
+                    if (block[i] != 0) {
+                        buffer.put(zeroes, 0, length);
+                        break;
+                    }
+                }
+                position += length;
+            }
+            firstDirty = 0;
+        }
+
+        /**
+         * Flushes the segments written since the last flush.
+         */
+        void force(Durability durability) throws IOException {
+            if (durability == Durability.NONE)
+                return;
+            MappedByteBuffer[] current = segments;
+            for (int i = firstDirty; i < current.length; i++)
+                current[i].force();
+            firstDirty = (int) Math.min(end / segmentSize, current.length - 1);
+            if (durability == Durability.FULL && grown) {
+                // Mapping a new segment grew the file
+                channel.force(true);
+                grown = false;
+            }
+        }
+
+        private void ensureMapped(long limit) throws IOException {
+            MappedByteBuffer[] current = segments;
+            if ((long) current.length * segmentSize >= limit)
+                return;
+            List<MappedByteBuffer> grownSegments = new ArrayList<>(Arrays.asList(current));
+            while ((long) grownSegments.size() * segmentSize < limit) {
+                grownSegments.add(channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) grownSegments.size() * segmentSize, segmentSize));
+            }
+            segments = grownSegments.toArray(new MappedByteBuffer[grownSegments.size()]);
+            grown = true;
+        }
+
+        /**
+         * Registers a reader, which must {@link #release} the log when done.
+         *
+         * @return {@code false} if the log has been retired, and so can't
+         *  be read any more
+         */
+        boolean acquire() {
+            while (true) {
+                int current = users.get();
+                if (current < 0)
+                    return false;
+                if (users.compareAndSet(current, current + 1))
+                    return true;
+            }
+        }
+
+        void release() {
+            if (users.decrementAndGet() == RETIRED)
+                unmap();
+        }
+
+        /**
+         * Stops new readers from using the log, and unmaps it as soon as
+         *  those already reading are done.
+         */
+        void retire() {
+            if (users.getAndUpdate(current -> current | RETIRED) == 0)
+                unmap();
+        }
+
+        boolean isUnmapped() {
+            return segments.length == 0;
+        }
+
+        private synchronized void unmap() {
+            MappedByteBuffer[] current = segments;
+            segments = new MappedByteBuffer[0];
+            for (MappedByteBuffer segment : current)
+                MappedFile.unmap(segment);
+        }
+
+        /**
+         * Closes the channel, trimming the file down to its records if
+         *  {@code truncate} is set. The log stays mapped.
+         */
+        void closeChannel(boolean truncate) throws IOException {
+            if (!channel.isOpen())
+                return;
+            try {
+                if (truncate)
+                    channel.truncate(end);
+            } catch (IOException ignored) {
+                // Probably still mapped (on Windows); the zeroed tail is skipped when it's reopened
+            } finally {
+                channel.close();
+            }
+        }
+
+        /**
+         * Unmaps and closes the log, trimming the file down to its records
+         *  if {@code truncate} is set. Only for logs no reader can reach.
+         */
+        void close(boolean truncate) throws IOException {
+            unmap();
+            closeChannel(truncate);
+        }
+
+        private static int checksum(ByteBuffer buffer, int from, int to) {
+            ByteBuffer record = buffer.duplicate();
+            record.limit(to).position(from + 4);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            return (int) crc.getValue();
+        }
+    }
+}
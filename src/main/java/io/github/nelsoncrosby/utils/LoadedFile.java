@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The outcome of reading one file in a batch: either its contents, or the
+ *  error that stopped it being read.
+ *
+ * @author Nelson Crosby
+ * @see StreamUtils#readWholeFiles
+ */
+public final class LoadedFile {
+    private final File file;
+    private final ByteSlice contents;
+    private final IOException error;
+
+    LoadedFile(File file, ByteSlice contents, IOException error) {
+        this.file = file;
+        this.contents = contents;
+        this.error = error;
+    }
+
+    /**
+     * @return The file this is the result for
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return {@code true} if the file was read successfully
+     */
+    public boolean isLoaded() {
+        return error == null;
+    }
+
+    /**
+     * @return The contents of the file
+     * @throws IOException If the file couldn't be read (with the original
+     *  error as the cause)
+     */
+    public ByteSlice getContents() throws IOException {
+        if (error != null)
+            throw new IOException("Couldn't read " + file, error);
+        return contents;
+    }
+
+    /**
+     * @return Why the file couldn't be read, or {@code null} if it was
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return error == null
+                ? "LoadedFile{" + file + ", " + contents.length() + " bytes}"
+                : "LoadedFile{" + file + ", " + error + '}';
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A read-only memory mapping of a whole file.
+ *
+ * A single {@link MappedByteBuffer} can only cover {@link Integer#MAX_VALUE}
+ *  bytes, so larger files are mapped as several consecutive segments. Most
+ *  files will only have one segment; see {@link #getSegment(int)}.
+ *
+ * The mapping stays valid until {@link #close()} is called, which makes a
+ *  best-effort attempt to unmap the segments straight away rather than
+ *  waiting for the garbage collector. Buffers obtained from this object
+ *  must not be used after it has been closed.
+ *
+ * @author Nelson Crosby
+ */
+public class MappedFile implements Closeable {
+    /** The largest number of bytes mapped by a single segment */
+    public static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final long size;
+    private final int segmentSize;
+    private MappedByteBuffer[] segments;
+
+    /**
+     * Maps the whole of {@code file} as read-only.
+     *
+     * @param file The {@link File} to map
+     * @throws IOException See {@link FileChannel#map}
+     */
+    public MappedFile(File file) throws IOException {
+        this(file, MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Maps the whole of {@code file} as read-only, in segments of at most
+     *  {@code segmentSize} bytes.
+     *
+     * @param file The {@link File} to map
+     * @param segmentSize The size of each segment but the last
+     * @throws IOException See {@link FileChannel#map}
+     */
+    MappedFile(File file, int segmentSize) throws IOException {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("segmentSize must be positive");
+        this.segmentSize = segmentSize;
+        // The mapping outlives the channel, so there is no need to keep it open
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            size = channel.size();
+            // An empty file still gets one (empty) segment, so getSegment(0) always works
+            int count = (int) Math.max(1, (size + segmentSize - 1) / segmentSize);
+            segments = new MappedByteBuffer[count];
+            try {
+                for (int i = 0; i < count; i++) {
+                    long position = (long) i * segmentSize;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(segmentSize, size - position));
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return The size of the mapped file in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return The size of each segment (except possibly the last) in bytes
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return The number of segments the file is mapped as; at least 1,
+     *  even for an empty file
+     */
+    public int getSegmentCount() {
+        return checkOpen().length;
+    }
+
+    /**
+     * Gets a view of one mapped segment. Segment {@code i} covers the bytes
+     *  from {@code i * getSegmentSize()} in the file.
+     *
+     * Each call returns an independent read-only view, so its position and
+     *  limit can be changed freely.
+     *
+     * @param index The index of the segment
+     * @return A read-only {@link ByteBuffer} over the segment
+     */
+    public ByteBuffer getSegment(int index) {
+        return checkOpen()[index].duplicate();
+    }
+
+    /**
+     * Reads a single byte from the file.
+     *
+     * @param position The offset of the byte in the file
+     * @return The byte at {@code position}
+     */
+    public byte get(long position) {
+        if (position < 0 || position >= size)
+            throw new IndexOutOfBoundsException(String.valueOf(position));
+        return checkOpen()[(int) (position / segmentSize)].get((int) (position % segmentSize));
+    }
+
+    /**
+     * Gets a read-only view of the bytes from {@code from} (inclusive) to
+     *  {@code to} (exclusive). If the range crosses a segment boundary the
+     *  bytes have to be copied onto the heap; otherwise no copy is made.
+     *
+     * @param from The offset in the file of the first byte
+     * @param to The offset in the file after the last byte
+     * @return A read-only {@link ByteBuffer} over the range
+     */
+    public ByteBuffer slice(long from, long to) {
+        if (from < 0 || to > size || from > to || to - from > Integer.MAX_VALUE)
+            throw new IndexOutOfBoundsException(from + " to " + to);
+        MappedByteBuffer[] current = checkOpen();
+        int segment = (int) (from / segmentSize);
+        int offset = (int) (from % segmentSize);
+        if (to - from <= segmentSize - offset) {
+            ByteBuffer view = current[segment].duplicate();
+            view.position(offset);
+            view.limit(offset + (int) (to - from));
+            return view.slice();
+        }
+
+        byte[] copy = new byte[(int) (to - from)];
+        int copied = 0;
+        while (copied < copy.length) {
+            ByteBuffer view = current[segment++].duplicate();
+            view.position(offset);
+            int chunk = Math.min(view.remaining(), copy.length - copied);
+            view.get(copy, copied, chunk);
+            copied += chunk;
+            offset = 0;
+        }
+        return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+    }
+
+    /**
+     * Finds the first occurrence of {@code value} between {@code from}
+     *  (inclusive) and {@code to} (exclusive).
+     *
+     * @param value The byte to look for
+     * @param from The offset in the file to start looking at
+     * @param to The offset in the file to stop looking at
+     * @return The offset of the byte, or -1 if it wasn't found
+     */
+    public long indexOf(byte value, long from, long to) {
+        MappedByteBuffer[] current = checkOpen();
+        to = Math.min(to, size);
+        while (from < to) {
+            MappedByteBuffer segment = current[(int) (from / segmentSize)];
+            long segmentStart = from - from % segmentSize;
+            int limit = (int) Math.min(segment.limit(), to - segmentStart);
+            for (int i = (int) (from - segmentStart); i < limit; i++) {
+                if (segment.get(i) == value)
+                    return segmentStart + i;
+            }
+            from = segmentStart + limit;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets a {@link Spliterator} over the records in the file, which are
+     *  separated by {@code delimiter}. It splits at record boundaries near
+     *  the middle of its range, so it works well with parallel streams.
+     *  Records are given as in {@link #records(byte)}.
+     *
+     * @param delimiter The byte that ends each record
+     * @return A new {@link Spliterator}
+     */
+    public Spliterator<ByteBuffer> spliterator(byte delimiter) {
+        return new MappedRecordSpliterator(this, delimiter, MappedRecordSpliterator.DEFAULT_MIN_SPLIT_SIZE);
+    }
+
+    /**
+     * Gets a {@link Stream} of the records in the file, which are separated
+     *  by {@code delimiter}. Call {@link Stream#parallel()} on it to process
+     *  the records on several threads.
+     *
+     * Each record is a read-only {@link ByteBuffer}, not including the
+     *  delimiter, which normally shares memory with the mapping. This object
+     *  must not be closed until the stream has been consumed.
+     *
+     * @param delimiter The byte that ends each record
+     * @return A new sequential {@link Stream}
+     */
+    public Stream<ByteBuffer> records(byte delimiter) {
+        return StreamSupport.stream(spliterator(delimiter), false);
+    }
+
+    /**
+     * Gets a {@link Stream} of the lines in the file, ending in either
+     *  {@code "\n"} or {@code "\r\n"}, decoded using {@code charset}.
+     *
+     * @param charset The {@link Charset} to decode lines with
+     * @return A new sequential {@link Stream}
+     * @see #records(byte)
+     */
+    public Stream<String> lines(Charset charset) {
+        return records((byte) '\n').map(line -> {
+            if (line.hasRemaining() && line.get(line.limit() - 1) == '\r')
+                line.limit(line.limit() - 1);
+            return charset.decode(line).toString();
+        });
+    }
+
+    /**
+     * @return {@code true} if {@link #close()} has not been called yet
+     */
+    public boolean isOpen() {
+        return segments != null;
+    }
+
+    /**
+     * Releases the mapping. Calling this more than once has no effect.
+     */
+    @Override
+    public void close() {
+        MappedByteBuffer[] toUnmap = segments;
+        segments = null;
+        if (toUnmap != null) {
+            for (MappedByteBuffer segment : toUnmap) {
+                if (segment != null)
+                    unmap(segment);
+            }
+        }
+    }
+
+    private MappedByteBuffer[] checkOpen() {
+        MappedByteBuffer[] current = segments;
+        if (current == null)
+            throw new IllegalStateException("MappedFile has been closed");
+        return current;
+    }
+
+    /**
+     * Releases a mapped (or other direct) buffer without waiting for it to
+     *  be collected.
+     *
+     * There's no public API for this, so it goes through
+     *  {@code Unsafe.invokeCleaner} (Java 9+) or the buffer's own cleaner
+     *  (Java 7 and 8). If neither is available the buffer is simply left
+     *  for the garbage collector.
+     *
+     * @param buffer The buffer to unmap
+     */
+    static void unmap(ByteBuffer buffer) {
+        if (!buffer.isDirect())
+            return;
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception | LinkageError ignored) {
+            // Fall back to letting the GC unmap it
+        }
+    }
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (Exception | LinkageError e) {
+            // Not Java 9+; unmap() will try the buffer's cleaner instead
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+}
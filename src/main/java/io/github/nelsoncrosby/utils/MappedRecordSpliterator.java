@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splits a {@link MappedFile} into delimiter-separated records, and can
+ *  itself be split at record boundaries so that parallel streams get
+ *  evenly-sized pieces of work.
+ *
+ * Each spliterator covers the records that start in
+ *  {@code [position, end)}. Splitting looks for the first delimiter after
+ *  the midpoint, so both halves always start at the beginning of a record
+ *  and no record is ever shared between them.
+ *
+ * @author Nelson Crosby
+ * @see MappedFile#records(byte)
+ */
+class MappedRecordSpliterator implements Spliterator<ByteBuffer> {
+    /** Ranges smaller than this many bytes are not split further */
+    static final long DEFAULT_MIN_SPLIT_SIZE = 1 << 16;
+    /** How many records are sampled to estimate the average record length */
+    private static final int SAMPLE_RECORDS = 64;
+
+    private final MappedFile file;
+    private final byte delimiter;
+    private final long minSplitSize;
+    private final double averageRecordLength;
+
+    private long position;
+    private final long end;
+
+    MappedRecordSpliterator(MappedFile file, byte delimiter, long minSplitSize) {
+        this.file = file;
+        this.delimiter = delimiter;
+        this.minSplitSize = Math.max(1, minSplitSize);
+        position = 0;
+        end = file.size();
+        averageRecordLength = sampleRecordLength();
+    }
+
+    private MappedRecordSpliterator(MappedRecordSpliterator parent, long position, long end) {
+        file = parent.file;
+        delimiter = parent.delimiter;
+        minSplitSize = parent.minSplitSize;
+        averageRecordLength = parent.averageRecordLength;
+        this.position = position;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ByteBuffer> action) {
+        if (position >= end)
+            return false;
+        long recordEnd = file.indexOf(delimiter, position, file.size());
+        long next;
+        if (recordEnd < 0) {
+            recordEnd = file.size();
+            next = recordEnd;
+        } else {
+            next = recordEnd + 1;
+        }
+        ByteBuffer record = file.slice(position, recordEnd);
+        position = next;
+        action.accept(record);
+        return true;
+    }
+
+    @Override
+    public Spliterator<ByteBuffer> trySplit() {
+        long remaining = end - position;
+        if (remaining < minSplitSize * 2)
+            return null;
+        long mid = position + remaining / 2;
+        long delimiterAt = file.indexOf(delimiter, mid, end);
+        if (delimiterAt < 0 || delimiterAt + 1 >= end)
+            return null;
+        // Hand out the first half so encounter order is kept
+        MappedRecordSpliterator prefix = new MappedRecordSpliterator(this, position, delimiterAt + 1);
+        position = delimiterAt + 1;
+        return prefix;
+    }
+
+    /**
+     * @return The remaining bytes divided by the average length of the
+     *  first few records in the file
+     */
+    @Override
+    public long estimateSize() {
+        return (long) Math.ceil((end - position) / averageRecordLength);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    private double sampleRecordLength() {
+        long sampled = 0;
+        long at = 0;
+        while (sampled < SAMPLE_RECORDS && at < end) {
+            long found = file.indexOf(delimiter, at, end);
+            at = found < 0 ? end : found + 1;
+            sampled++;
+        }
+        return sampled == 0 ? 1 : Math.max(1, (double) at / sampled);
+    }
+}
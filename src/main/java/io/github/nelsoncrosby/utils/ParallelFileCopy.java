@@ -0,0 +1,272 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies large files by splitting them into ranges and copying the ranges
+ *  on several threads at once, using positional reads and writes. A single
+ *  thread often can't keep fast storage (NVMe, RAID) busy.
+ *
+ * Files smaller than the threshold are copied with
+ *  {@link StreamUtils#copyStreams} instead, since the overhead isn't worth it.
+ *
+ * @author Nelson Crosby
+ */
+public class ParallelFileCopy {
+    /** Files smaller than this many bytes are copied sequentially by default */
+    public static final long DEFAULT_THRESHOLD = 64L << 20;
+    /** The default number of bytes each worker copies at a time */
+    public static final long DEFAULT_RANGE_SIZE = 16L << 20;
+
+    /** The buffer size each worker uses within its range */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Receives progress updates for a copy. Updates may come from several
+     *  threads at once.
+     */
+    public interface ProgressListener {
+        /**
+         * @param bytesCopied The number of bytes copied so far
+         * @param totalBytes The size of the file being copied
+         */
+        void progress(long bytesCopied, long totalBytes);
+    }
+
+    /**
+     * Starts copying {@code from} into {@code to}, replacing its contents.
+     *
+     * The returned future can be cancelled, which stops the workers after
+     *  the chunk they are on; the destination is then left incomplete. If
+     *  any range fails, the whole copy fails with that error and the other
+     *  ranges stop.
+     *
+     * @param from The {@link File} to copy
+     * @param to The {@link File} to copy to
+     * @param rangeSize The number of bytes each worker copies at a time
+     * @param threshold Files smaller than this are copied sequentially
+     * @param executor The {@link Executor} to run the workers on
+     * @param listener Receives progress updates, or {@code null}
+     * @return A future that completes with the number of bytes copied
+     */
+    public static CompletableFuture<Long> copyAsync(File from, File to, long rangeSize, long threshold,
+                                                    Executor executor, ProgressListener listener) {
+        if (rangeSize <= 0)
+            throw new IllegalArgumentException("rangeSize must be positive");
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        long size = from.length();
+        if (size < threshold) {
+            executor.execute(() -> copySequential(from, to, listener, result));
+            return result;
+        }
+
+        FileChannel source = null;
+        FileChannel destination = null;
+        try {
+            source = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+            destination = FileChannel.open(to.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            size = source.size();
+            if (size > 0)
+                // Set the final length up front so the ranges can be written in any order
+                destination.write(ByteBuffer.allocate(1), size - 1);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(source);
+            closeQuietly(destination);
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        new Job(source, destination, size, rangeSize, listener, result).start(executor);
+        return result;
+    }
+
+    /**
+     * Wrapper for {@link #copyAsync(File, File, long, long, Executor, ProgressListener)}
+     *  using the default range size and threshold, and
+     *  {@link ForkJoinPool#commonPool()}.
+     *
+     * @param from The {@link File} to copy
+     * @param to The {@link File} to copy to
+     * @param listener Receives progress updates, or {@code null}
+     * @return A future that completes with the number of bytes copied
+     */
+    public static CompletableFuture<Long> copyAsync(File from, File to, ProgressListener listener) {
+        return copyAsync(from, to, DEFAULT_RANGE_SIZE, DEFAULT_THRESHOLD, ForkJoinPool.commonPool(), listener);
+    }
+
+    /**
+     * Copies {@code from} into {@code to}, replacing its contents, and waits
+     *  for it to finish.
+     *
+     * @param from The {@link File} to copy
+     * @param to The {@link File} to copy to
+     * @return The number of bytes copied
+     * @throws IOException If any range fails to copy
+     * @see #copyAsync(File, File, ProgressListener)
+     */
+    public static long copy(File from, File to) throws IOException {
+        CompletableFuture<Long> result = copyAsync(from, to, null);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying " + from);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static void copySequential(File from, File to, ProgressListener listener,
+                                       CompletableFuture<Long> result) {
+        if (result.isDone())
+            return;
+        try {
+            long size = from.length();
+            StreamUtils.copyStreams(new FileInputStream(from), new FileOutputStream(to));
+            if (listener != null)
+                listener.progress(size, size);
+            result.complete(size);
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * The shared state of one parallel copy. The last range to finish
+     *  closes the channels and completes the result.
+     */
+    private static class Job {
+        private final FileChannel source;
+        private final FileChannel destination;
+        private final long size;
+        private final long rangeSize;
+        private final ProgressListener listener;
+        private final CompletableFuture<Long> result;
+
+        private final AtomicInteger rangesLeft;
+        private final AtomicLong copied = new AtomicLong();
+
+        Job(FileChannel source, FileChannel destination, long size, long rangeSize,
+            ProgressListener listener, CompletableFuture<Long> result) {
+            this.source = source;
+            this.destination = destination;
+            this.size = size;
+            this.rangeSize = rangeSize;
+            this.listener = listener;
+            this.result = result;
+            rangesLeft = new AtomicInteger((int) Math.max(1, (size + rangeSize - 1) / rangeSize));
+        }
+
+        void start(Executor executor) {
+            int ranges = rangesLeft.get();
+            for (int i = 0; i < ranges; i++) {
+                final long start = i * rangeSize;
+                final long end = Math.min(size, start + rangeSize);
+                try {
+                    executor.execute(() -> copyRange(start, end));
+                } catch (RuntimeException e) {
+                    // Rejected; count this and the rest as done so the job can finish
+                    result.completeExceptionally(e);
+                    for (int j = i; j < ranges; j++)
+                        rangeDone();
+                    return;
+                }
+            }
+        }
+
+        private void copyRange(long start, long end) {
+            BufferPool pool = BufferPool.getDefault();
+            // Direct, so the channels don't copy each chunk through a temporary buffer
+            ByteBuffer buffer = pool.acquireDirect(CHUNK_SIZE);
+            try {
+                long position = start;
+                // Checking isDone() lets cancellation or another range's failure stop us
+                while (position < end && !result.isDone()) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(CHUNK_SIZE, end - position));
+                    while (buffer.hasRemaining()) {
+                        if (source.read(buffer, position + buffer.position()) == -1)
+                            throw new IOException("Source file shrank during copy");
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                        destination.write(buffer, position + buffer.position());
+                    position += buffer.limit();
+
+                    long total = copied.addAndGet(buffer.limit());
+                    if (listener != null)
+                        listener.progress(total, size);
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                pool.releaseDirect(buffer);
+                rangeDone();
+            }
+        }
+
+        private void rangeDone() {
+            if (rangesLeft.decrementAndGet() != 0)
+                return;
+            try {
+                source.close();
+                destination.close();
+                result.complete(size);
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            } finally {
+                closeQuietly(destination);
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Parallel gzip compression and decompression, in the style of pigz.
+ *
+ * The input is split into blocks which are compressed independently on
+ *  several threads, and written out in order as a series of gzip members.
+ *  Concatenated members are a standard gzip stream, so the output can be
+ *  read by any gzip reader (including {@link GZIPInputStream}).
+ *
+ * Each member records its own compressed length in a gzip "extra" field
+ *  (subfield ID {@code NC}), much like BGZF does, which lets
+ *  {@link #decompress} find the member boundaries without inflating, and
+ *  so inflate the members in parallel too. Gzip data without this field is
+ *  decompressed sequentially.
+ *
+ * @author Nelson Crosby
+ * @see ParallelGzipOutputStream
+ */
+public class ParallelGzip {
+    /** The default number of uncompressed bytes in each member */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    /**
+     * The largest block size members can be written with, and so the most
+     *  {@link #decompress} will allocate for a member it inflates in parallel
+     */
+    public static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    /** The fixed header, FEXTRA flag, XLEN and extra subfield header */
+    private static final int HEADER_SIZE = 10 + 2 + 8;
+    /** CRC32 and ISIZE */
+    private static final int TRAILER_SIZE = 8;
+    private static final byte SUBFIELD_ID1 = 'N';
+    private static final byte SUBFIELD_ID2 = 'C';
+
+    /**
+     * Compresses everything from {@code from} into {@code to} as a
+     *  multi-member gzip stream, compressing blocks on {@code executor}.
+     *
+     * This method closes both streams at the end.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @param blockSize The number of uncompressed bytes in each member
+     * @param level The compression level (see {@link Deflater})
+     * @param executor The {@link Executor} to compress blocks on
+     * @throws IOException
+     */
+    public static void compress(InputStream from, OutputStream to, int blockSize, int level, Executor executor)
+            throws IOException {
+        StreamUtils.copyStreams(from, new ParallelGzipOutputStream(to, blockSize, level, executor), blockSize);
+    }
+
+    /**
+     * Wrapper for {@link #compress(InputStream, OutputStream, int, int, Executor)}
+     *  using the default block size and compression level, and
+     *  {@link ForkJoinPool#commonPool()}.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @throws IOException
+     */
+    public static void compress(InputStream from, OutputStream to) throws IOException {
+        compress(from, to, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decompresses the gzip stream {@code from} into {@code to}. Members
+     *  written by {@link ParallelGzipOutputStream} are inflated in parallel
+     *  on {@code executor}; from the first member that wasn't, the rest is
+     *  inflated sequentially with a {@link GZIPInputStream}.
+     *
+     * This method closes both streams at the end.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @param executor The {@link Executor} to inflate members on
+     * @throws IOException If the data is not valid gzip, or on an I/O error
+     */
+    public static void decompress(InputStream from, OutputStream to, Executor executor) throws IOException {
+        int maxPending = Math.max(2, Sys.getProfile().getParallelism() * 2);
+        Queue<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            while (true) {
+                int headerRead = readUpTo(from, header, header.length);
+                if (headerRead == 0)
+                    break;
+                int memberSize = headerRead == HEADER_SIZE ? parseMemberSize(header) : -1;
+                if (memberSize < 0) {
+                    // Not one of ours; let GZIPInputStream deal with the rest
+                    drain(pending, to, 0);
+                    InputStream rest = new SequenceInputStream(
+                            new ByteArrayInputStream(header, 0, headerRead), from);
+                    StreamUtils.copyStreams(new GZIPInputStream(rest), to);
+                    return;
+                }
+
+                final byte[] body = new byte[memberSize - HEADER_SIZE];
+                readFully(from, body);
+                pending.add(supply(executor, () -> inflateMember(body)));
+                drain(pending, to, maxPending);
+            }
+            drain(pending, to, 0);
+        } finally {
+            try {
+                from.close();
+            } finally {
+                to.close();
+            }
+        }
+    }
+
+    /**
+     * Wrapper for {@link #decompress(InputStream, OutputStream, Executor)}
+     *  using {@link ForkJoinPool#commonPool()}.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @throws IOException
+     */
+    public static void decompress(InputStream from, OutputStream to) throws IOException {
+        decompress(from, to, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compresses {@code length} bytes of {@code block} into a complete gzip
+     *  member, including the extra field with the member's length.
+     */
+    static byte[] compressMember(byte[] block, int length, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(block, 0, length);
+            deflater.finish();
+            // Deflate can expand incompressible data slightly
+            byte[] member = new byte[maxMemberSize(length)];
+            int size = HEADER_SIZE;
+            while (!deflater.finished()) {
+                if (size == member.length - TRAILER_SIZE)
+                    member = Arrays.copyOf(member, member.length * 2);
+                size += deflater.deflate(member, size, member.length - TRAILER_SIZE - size);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(block, 0, length);
+            size += TRAILER_SIZE;
+
+            member[0] = 0x1f;
+            member[1] = (byte) 0x8b;
+            member[2] = Deflater.DEFLATED;
+            member[3] = 0x04;                   // FLG.FEXTRA
+            // MTIME (4 bytes) and XFL are left as 0
+            member[9] = (byte) 0xff;            // OS: unknown
+            putShort(member, 10, 8);            // XLEN
+            member[12] = SUBFIELD_ID1;
+            member[13] = SUBFIELD_ID2;
+            putShort(member, 14, 4);            // LEN
+            putInt(member, 16, size);           // The member's total size
+            putInt(member, size - 8, (int) crc.getValue());
+            putInt(member, size - 4, length);
+            return size == member.length ? member : Arrays.copyOf(member, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return The most a member of {@code blockSize} uncompressed bytes can
+     *  take up, allowing for deflate expanding incompressible data
+     */
+    private static int maxMemberSize(int blockSize) {
+        return HEADER_SIZE + blockSize + blockSize / 1000 + 64 + TRAILER_SIZE;
+    }
+
+    /**
+     * @return The total size of the member whose header is {@code header},
+     *  or -1 if it doesn't have the length field
+     */
+    private static int parseMemberSize(byte[] header) throws IOException {
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b)
+            throw new ZipException("Not in gzip format");
+        if (header[2] != Deflater.DEFLATED || header[3] != 0x04 || getShort(header, 10) != 8
+                || header[12] != SUBFIELD_ID1 || header[13] != SUBFIELD_ID2 || getShort(header, 14) != 4)
+            return -1;
+        int size = getInt(header, 16);
+        if (size < HEADER_SIZE + TRAILER_SIZE || size > maxMemberSize(MAX_BLOCK_SIZE))
+            throw new ZipException("Corrupt gzip member length");
+        return size;
+    }
+
+    /**
+     * Inflates the deflate data and trailer following one of our headers,
+     *  checking it against the trailer's CRC32 and length.
+     */
+    private static byte[] inflateMember(byte[] body) throws IOException {
+        int dataLength = body.length - TRAILER_SIZE;
+        int expectedCrc = getInt(body, dataLength);
+        int expectedSize = getInt(body, dataLength + 4);
+        if (expectedSize < 0 || expectedSize > MAX_BLOCK_SIZE)
+            throw new ZipException("Corrupt gzip member (bad length)");
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(body, 0, dataLength);
+            byte[] output = new byte[expectedSize];
+            int size = 0;
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(output, size, output.length - size);
+                size += inflated;
+                if (inflated == 0 && !inflater.finished() && (inflater.needsInput() || size == output.length))
+                    throw new ZipException("Corrupt gzip member");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(output, 0, size);
+            if (size != expectedSize || (int) crc.getValue() != expectedCrc)
+                throw new ZipException("Corrupt gzip member (bad CRC or length)");
+            return output;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes out completed members, in order, until at most
+     *  {@code maxPending} remain (waiting for them if necessary).
+     */
+    static void drain(Queue<CompletableFuture<byte[]>> pending, OutputStream to, int maxPending)
+            throws IOException {
+        while (pending.size() > maxPending || (!pending.isEmpty() && pending.peek().isDone())) {
+            byte[] next;
+            try {
+                next = pending.remove().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a gzip block");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                throw new IOException(cause);
+            }
+            to.write(next);
+        }
+    }
+
+    interface BlockTask {
+        byte[] run() throws IOException;
+    }
+
+    static CompletableFuture<byte[]> supply(Executor executor, BlockTask task) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.run());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private static int readUpTo(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        int bytesRead;
+        while (total < length && (bytesRead = in.read(buffer, total, length - total)) != -1)
+            total += bytesRead;
+        return total;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        if (readUpTo(in, buffer, buffer.length) != buffer.length)
+            throw new EOFException("Unexpected end of gzip stream");
+    }
+
+    private static void putShort(byte[] array, int offset, int value) {
+        array[offset] = (byte) value;
+        array[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] array, int offset, int value) {
+        putShort(array, offset, value);
+        putShort(array, offset + 2, value >>> 16);
+    }
+
+    private static int getShort(byte[] array, int offset) {
+        return (array[offset] & 0xff) | (array[offset + 1] & 0xff) << 8;
+    }
+
+    private static int getInt(byte[] array, int offset) {
+        return getShort(array, offset) | getShort(array, offset + 2) << 16;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link OutputStream} that gzips everything written to it, compressing
+ *  blocks in parallel. It can be used anywhere a stream is, for example as
+ *  the destination of {@link StreamUtils#copyStreams} or
+ *  {@link StreamUtils#writeToStream}.
+ *
+ * See {@link ParallelGzip} for the output format. At most a few blocks per
+ *  processor are held in memory; once that many are waiting, writes block
+ *  until the oldest has been written out.
+ *
+ * @author Nelson Crosby
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final int blockSize;
+    private final int level;
+    private final Executor executor;
+    private final int maxPending;
+
+    private final Queue<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block;
+    private int blockLength;
+    private boolean wroteMember;
+    private boolean closed;
+
+    /**
+     * @param out The stream to write compressed data to
+     * @param blockSize The number of uncompressed bytes in each member, at
+     *  most {@link ParallelGzip#MAX_BLOCK_SIZE}
+     * @param level The compression level (see {@link Deflater})
+     * @param executor The {@link Executor} to compress blocks on
+     */
+    public ParallelGzipOutputStream(OutputStream out, int blockSize, int level, Executor executor) {
+        if (blockSize <= 0 || blockSize > ParallelGzip.MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("blockSize out of range: " + blockSize);
+        this.out = out;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.executor = executor;
+        maxPending = Math.max(2, Sys.getProfile().getParallelism() * 2);
+    }
+
+    /**
+     * Creates a stream using {@link ParallelGzip#DEFAULT_BLOCK_SIZE}, the
+     *  default compression level and {@link ForkJoinPool#commonPool()}.
+     *
+     * @param out The stream to write compressed data to
+     */
+    public ParallelGzipOutputStream(OutputStream out) {
+        this(out, ParallelGzip.DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        while (len > 0) {
+            if (block == null)
+                block = BufferPool.getDefault().acquire(blockSize);
+            int chunk = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, chunk);
+            blockLength += chunk;
+            off += chunk;
+            len -= chunk;
+            if (blockLength == blockSize)
+                submitBlock();
+        }
+    }
+
+    /**
+     * Compresses whatever has been written so far as a (possibly short)
+     *  member, writes out every finished member, and flushes the underlying
+     *  stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        if (blockLength > 0)
+            submitBlock();
+        ParallelGzip.drain(pending, out, 0);
+        out.flush();
+    }
+
+    /**
+     * Finishes compressing, writes everything out, and closes the underlying
+     *  stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            // An empty input still needs one (empty) member to be valid gzip
+            if (blockLength > 0 || !wroteMember)
+                submitBlock();
+            ParallelGzip.drain(pending, out, 0);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] toCompress = block != null ? block : new byte[0];
+        final int length = blockLength;
+        block = null;
+        blockLength = 0;
+        wroteMember = true;
+        pending.add(ParallelGzip.supply(executor, () -> {
+            try {
+                return ParallelGzip.compressMember(toCompress, length, level);
+            } finally {
+                if (toCompress.length > 0)
+                    BufferPool.getDefault().release(toCompress);
+            }
+        }));
+        ParallelGzip.drain(pending, out, maxPending);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The engine behind {@link StreamUtils#copyStreamsPipelined}.
+ *
+ * A reader thread fills buffers from a fixed set of {@code depth} buffers
+ *  while the calling thread writes them out. Once all the buffers are full
+ *  the reader waits for the writer to hand one back, so at most
+ *  {@code depth * blockSize} bytes are ever held.
+ *
+ * @author Nelson Crosby
+ */
+class PipelinedCopy {
+    private final InputStream from;
+    private final OutputStream to;
+    private final int blockSize;
+
+    private final BlockingQueue<byte[]> empty;
+    /** One extra slot so the reader always has room to report an error */
+    private final BlockingQueue<Chunk> filled;
+
+    private PipelinedCopy(InputStream from, OutputStream to, int blockSize, int depth) {
+        this.from = from;
+        this.to = to;
+        this.blockSize = blockSize;
+        empty = new ArrayBlockingQueue<>(depth);
+        filled = new ArrayBlockingQueue<>(depth + 1);
+        // Not pooled: after a failure the reader may still hold one
+        for (int i = 0; i < depth; i++)
+            empty.add(new byte[blockSize]);
+    }
+
+    static void copy(InputStream from, OutputStream to, int blockSize, int depth) throws IOException {
+        if (depth <= 0)
+            throw new IllegalArgumentException("depth must be positive");
+        new PipelinedCopy(from, to, blockSize, depth).run();
+    }
+
+    private void run() throws IOException {
+        Thread reader = new Thread(this::read, "ncutils-pipelined-copy");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            Chunk chunk;
+            while ((chunk = filled.take()) != Chunk.END) {
+                if (chunk.error != null)
+                    throw rethrow(chunk.error);
+                to.write(chunk.buffer, 0, chunk.length);
+                empty.add(chunk.buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during pipelined copy");
+        } finally {
+            // Stops the reader if the writer failed; a no-op if it's already done
+            reader.interrupt();
+            try {
+                from.close();
+            } finally {
+                to.close();
+            }
+        }
+    }
+
+    private void read() {
+        try {
+            while (true) {
+                byte[] buffer = empty.take();
+                int bytesRead = from.read(buffer, 0, blockSize);
+                if (bytesRead == -1) {
+                    filled.put(Chunk.END);
+                    return;
+                }
+                filled.put(new Chunk(buffer, bytesRead, null));
+            }
+        } catch (InterruptedException e) {
+            // The writer has given up
+        } catch (Throwable t) {
+            filled.offer(new Chunk(null, 0, t));
+        }
+    }
+
+    private static IOException rethrow(Throwable error) {
+        if (error instanceof IOException)
+            return (IOException) error;
+        if (error instanceof RuntimeException)
+            throw (RuntimeException) error;
+        if (error instanceof Error)
+            throw (Error) error;
+        return new IOException(error);
+    }
+
+    private static class Chunk {
+        static final Chunk END = new Chunk(null, -1, null);
+
+        final byte[] buffer;
+        final int length;
+        final Throwable error;
+
+        Chunk(byte[] buffer, int length, Throwable error) {
+            this.buffer = buffer;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Splits a stream into records lazily, so that files far larger than the
+ *  heap can be processed one record at a time. Records are separated by a
+ *  delimiter byte (such as a newline), or are all the same length.
+ *
+ * Every record is returned as a {@link ByteSlice} over a single internal
+ *  buffer, which is reused: a record is only valid until the next call to
+ *  {@link #hasNext()} or {@link #next()}. Copy it (for example with
+ *  {@link ByteSlice#toByteArray()}) to keep it for longer. The buffer only
+ *  grows if a single record doesn't fit in it, so memory use is bounded by
+ *  the longest record rather than the size of the input.
+ *
+ * Usage: <blockquote><pre>
+ *     try (Stream&lt;String&gt; lines = RecordReader.lines(file).strings(charset)) {
+ *         lines.forEach(...);
+ *     }
+ * </pre></blockquote>
+ *
+ * @author Nelson Crosby
+ */
+public class RecordReader implements Iterator<ByteSlice>, Closeable {
+    /** The default initial size of the internal buffer, in bytes */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final int delimiter;
+    private final int recordLength;
+    private final boolean stripCarriageReturn;
+
+    private byte[] buffer;
+    /** The unconsumed data is buffer[start, end) */
+    private int start;
+    private int end;
+    /** Where to resume looking for the delimiter */
+    private int scanned;
+    private boolean eof;
+
+    private ByteSlice pending;
+
+    private RecordReader(InputStream in, int delimiter, int recordLength, boolean stripCarriageReturn,
+                         int blockSize) {
+        this.in = in;
+        this.delimiter = delimiter;
+        this.recordLength = recordLength;
+        this.stripCarriageReturn = stripCarriageReturn;
+        buffer = new byte[Math.max(blockSize, recordLength)];
+    }
+
+    /**
+     * Splits {@code in} into lines, ending in either {@code "\n"} or
+     *  {@code "\r\n"}. The line endings are not included in the records.
+     *
+     * @param in The source stream
+     * @param blockSize The initial size of the buffer
+     * @return A new {@link RecordReader}
+     */
+    public static RecordReader lines(InputStream in, int blockSize) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("blockSize must be positive");
+        return new RecordReader(in, '\n', 0, true, blockSize);
+    }
+
+    /**
+     * Wrapper for {@link #lines(InputStream, int)} using a {@code blockSize}
+     *  of {@value #DEFAULT_BUFFER_SIZE}.
+     *
+     * @param in The source stream
+     * @return A new {@link RecordReader}
+     */
+    public static RecordReader lines(InputStream in) {
+        return lines(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Wrapper for {@link #lines(InputStream)} that creates a
+     *  {@link FileInputStream} from {@code from}.
+     *
+     * @param from The {@link File} to read from
+     * @return A new {@link RecordReader}
+     * @throws IOException If the file can't be opened
+     */
+    public static RecordReader lines(File from) throws IOException {
+        return lines(new FileInputStream(from));
+    }
+
+    /**
+     * Splits {@code in} into records separated by {@code delimiter}. The
+     *  delimiters are not included in the records.
+     *
+     * @param in The source stream
+     * @param delimiter The byte that ends each record
+     * @param blockSize The initial size of the buffer
+     * @return A new {@link RecordReader}
+     */
+    public static RecordReader delimited(InputStream in, byte delimiter, int blockSize) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("blockSize must be positive");
+        return new RecordReader(in, delimiter & 0xff, 0, false, blockSize);
+    }
+
+    /**
+     * Wrapper for {@link #delimited(InputStream, byte, int)} using a
+     *  {@code blockSize} of {@value #DEFAULT_BUFFER_SIZE}.
+     *
+     * @param in The source stream
+     * @param delimiter The byte that ends each record
+     * @return A new {@link RecordReader}
+     */
+    public static RecordReader delimited(InputStream in, byte delimiter) {
+        return delimited(in, delimiter, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Splits {@code in} into records of exactly {@code recordLength} bytes.
+     *  If the length of the input isn't a multiple of {@code recordLength},
+     *  the last record is shorter.
+     *
+     * @param in The source stream
+     * @param recordLength The length of each record
+     * @return A new {@link RecordReader}
+     */
+    public static RecordReader fixedLength(InputStream in, int recordLength) {
+        if (recordLength <= 0)
+            throw new IllegalArgumentException("recordLength must be positive");
+        return new RecordReader(in, -1, recordLength, false,
+                Math.max(recordLength, DEFAULT_BUFFER_SIZE / recordLength * recordLength));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null) {
+            try {
+                pending = recordLength > 0 ? findFixed() : findDelimited();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return pending != null;
+    }
+
+    /**
+     * @return The next record, which is only valid until the next call to
+     *  {@link #hasNext()} or {@link #next()}
+     * @throws UncheckedIOException If reading the stream fails
+     */
+    @Override
+    public ByteSlice next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        ByteSlice record = pending;
+        pending = null;
+        return record;
+    }
+
+    /**
+     * @return A sequential {@link Stream} of the remaining records, which
+     *  closes this reader when it is closed
+     */
+    public Stream<ByteSlice> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * @param charset The {@link Charset} to decode records with
+     * @return A sequential {@link Stream} of the remaining records as
+     *  {@link String}s, which closes this reader when it is closed
+     */
+    public Stream<String> strings(Charset charset) {
+        return stream().map(record -> record.toString(charset));
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException See {@link InputStream#close()}
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private ByteSlice findDelimited() throws IOException {
+        while (true) {
+            for (int i = scanned; i < end; i++) {
+                if ((buffer[i] & 0xff) == delimiter) {
+                    int recordStart = start;
+                    start = scanned = i + 1;
+                    return record(recordStart, i);
+                }
+            }
+            scanned = end;
+            if (eof || !fill()) {
+                if (start == end)
+                    return null;
+                int recordStart = start;
+                start = scanned = end;
+                return record(recordStart, end);
+            }
+        }
+    }
+
+    private ByteSlice findFixed() throws IOException {
+        while (end - start < recordLength) {
+            if (eof || !fill()) {
+                if (start == end)
+                    return null;
+                break;
+            }
+        }
+        int recordStart = start;
+        start = Math.min(end, start + recordLength);
+        return new ByteSlice(buffer, recordStart, start - recordStart);
+    }
+
+    private ByteSlice record(int from, int to) {
+        if (stripCarriageReturn && to > from && buffer[to - 1] == '\r')
+            to--;
+        return new ByteSlice(buffer, from, to - from);
+    }
+
+    /**
+     * Reads more data into the buffer, first moving the unconsumed data to
+     *  the front (or growing the buffer if it's all unconsumed).
+     *
+     * @return {@code false} if the stream is at EOF
+     */
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scanned -= start;
+            start = 0;
+        }
+        if (end == buffer.length)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        int bytesRead;
+        while ((bytesRead = in.read(buffer, end, buffer.length - end)) == 0) {
+            // Keep trying; only -1 means EOF
+        }
+        if (bytesRead == -1) {
+            eof = true;
+            return false;
+        }
+        end += bytesRead;
+        return true;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link OutputStream} that collects everything written to it in memory,
+ *  like {@link java.io.ByteArrayOutputStream}, but grows by adding
+ *  fixed-size segments instead of reallocating one big array. Data already
+ *  written is never copied again, and no single large array has to be
+ *  allocated until (unless) {@link #toByteArray()} is called.
+ *
+ * The contents can be read back with {@link #toInputStream()}, written out
+ *  with {@link #toByteBuffers()} and a gathering write, or flattened with
+ *  {@link #toByteArray()}.
+ *
+ * Unlike {@link java.io.ByteArrayOutputStream}, this class is not
+ *  thread-safe.
+ *
+ * @author Nelson Crosby
+ * @see StreamUtils#readWholeStreamSegmented
+ */
+public class SegmentedOutputStream extends OutputStream {
+    /**
+     * The default segment size, in bytes; small enough that segments are
+     *  ordinary young-generation allocations for the garbage collector
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 16;
+
+    private final int segmentSize;
+    private final List<byte[]> segments = new ArrayList<>();
+    /** The number of bytes used in the last segment */
+    private int tailLength;
+    private long size;
+
+    /**
+     * Creates an empty stream using {@value #DEFAULT_SEGMENT_SIZE}-byte segments.
+     */
+    public SegmentedOutputStream() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates an empty stream.
+     *
+     * @param segmentSize The size of each segment, in bytes
+     */
+    public SegmentedOutputStream(int segmentSize) {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("segmentSize must be positive: " + segmentSize);
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public void write(int b) {
+        tail()[tailLength++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            byte[] tail = tail();
+            int chunk = Math.min(len, segmentSize - tailLength);
+            System.arraycopy(b, off, tail, tailLength, chunk);
+            tailLength += chunk;
+            size += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Reads all remaining bytes until EOF from {@code in} straight into the
+     *  segments, without going through an intermediate buffer. Does not
+     *  close {@code in}.
+     *
+     * @param in The source stream
+     * @return The number of bytes read
+     * @throws IOException See {@link InputStream#read(byte[], int, int)}
+     */
+    public long readFrom(InputStream in) throws IOException {
+        long total = 0;
+        while (true) {
+            byte[] tail = tail();
+            int bytesRead = in.read(tail, tailLength, segmentSize - tailLength);
+            if (bytesRead == -1)
+                return total;
+            tailLength += bytesRead;
+            size += bytesRead;
+            total += bytesRead;
+        }
+    }
+
+    /**
+     * @return The number of bytes written so far
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return The size of each segment, in bytes
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Discards everything written so far, keeping the first segment for reuse.
+     */
+    public void reset() {
+        if (segments.size() > 1)
+            segments.subList(1, segments.size()).clear();
+        tailLength = 0;
+        size = 0;
+    }
+
+    /**
+     * Copies the contents into a single new array.
+     *
+     * @return The contents
+     * @throws OutOfMemoryError If the contents are too large for an array
+     */
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new OutOfMemoryError("Too large to fit in an array: " + size + " bytes");
+        byte[] result = new byte[(int) size];
+        int offset = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            int length = segmentLength(i);
+            System.arraycopy(segments.get(i), 0, result, offset, length);
+            offset += length;
+        }
+        return result;
+    }
+
+    /**
+     * Wraps each segment in a read-only buffer covering the bytes written to
+     *  it, ready for a gathering write such as
+     *  {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])}.
+     *  The buffers share the segments, so nothing is copied, but they don't
+     *  see anything written afterwards.
+     *
+     * @return The contents, one buffer per segment
+     */
+    public ByteBuffer[] toByteBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[segments.size()];
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = ByteBuffer.wrap(segments.get(i), 0, segmentLength(i)).asReadOnlyBuffer();
+        return buffers;
+    }
+
+    /**
+     * Creates a stream that reads the contents straight out of the
+     *  segments. It doesn't see anything written afterwards, and must not
+     *  be used after {@link #reset()}.
+     *
+     * @return An {@link InputStream} over the contents
+     */
+    public InputStream toInputStream() {
+        return new SegmentInputStream(segments.toArray(new byte[segments.size()][]), size);
+    }
+
+    /**
+     * Writes the contents into {@code out}, a segment at a time. Does not
+     *  close {@code out}.
+     *
+     * @param out The destination stream
+     * @throws IOException See {@link OutputStream#write(byte[], int, int)}
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        for (int i = 0; i < segments.size(); i++)
+            out.write(segments.get(i), 0, segmentLength(i));
+    }
+
+    /**
+     * Decodes the contents using {@code charset}.
+     *
+     * @param charset The {@link Charset} to decode with
+     * @return The decoded contents
+     */
+    public String toString(Charset charset) {
+        return new String(toByteArray(), charset);
+    }
+
+    /**
+     * Decodes the contents using the platform's default charset.
+     *
+     * @return The decoded contents
+     */
+    @Override
+    public String toString() {
+        return toString(Charset.defaultCharset());
+    }
+
+    /**
+     * @return The last segment, after adding a new one if it's full
+     */
+    private byte[] tail() {
+        if (segments.isEmpty() || tailLength == segmentSize) {
+            segments.add(new byte[segmentSize]);
+            tailLength = 0;
+        }
+        return segments.get(segments.size() - 1);
+    }
+
+    private int segmentLength(int index) {
+        return index == segments.size() - 1 ? tailLength : segmentSize;
+    }
+
+    /**
+     * Reads through a fixed set of segments.
+     */
+    private static final class SegmentInputStream extends InputStream {
+        private final byte[][] segments;
+        private long remaining;
+        private int segment;
+        private int offset;
+
+        SegmentInputStream(byte[][] segments, long size) {
+            this.segments = segments;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0)
+                return -1;
+            advance();
+            remaining--;
+            return segments[segment][offset++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (len == 0)
+                return 0;
+            if (remaining == 0)
+                return -1;
+            int total = 0;
+            while (len > 0 && remaining > 0) {
+                advance();
+                int chunk = (int) Math.min(Math.min(len, segments[segment].length - offset), remaining);
+                System.arraycopy(segments[segment], offset, b, off, chunk);
+                offset += chunk;
+                off += chunk;
+                len -= chunk;
+                total += chunk;
+                remaining -= chunk;
+            }
+            return total;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = 0;
+            while (n > 0 && remaining > 0) {
+                advance();
+                int chunk = (int) Math.min(Math.min(n, segments[segment].length - offset), remaining);
+                offset += chunk;
+                n -= chunk;
+                skipped += chunk;
+                remaining -= chunk;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        /** Moves on to the next segment if the current one is used up */
+        private void advance() {
+            if (offset == segments[segment].length) {
+                segment++;
+                offset = 0;
+            }
+        }
+    }
+}
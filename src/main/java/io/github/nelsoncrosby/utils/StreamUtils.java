@@ -24,6 +24,37 @@
 package io.github.nelsoncrosby.utils;
 
 import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 /**
  * Handy utilities for working with streams.
@@ -33,6 +64,7 @@ import java.io.*;
  * Notably useful wrapper methods:
  * <ul>
  *     <li>{@link #readWholeFile(File)}</li>
+ *     <li>{@link #mapWholeFile(File)}</li>
  *     <li>{@link #writeToFile(byte[], File)}</li>
  *     <li>{@link #writeToFile(String, File)}</li>
  * </ul>
@@ -41,22 +73,37 @@ import java.io.*;
  */
 public class StreamUtils {
     /**
-     * The default block size in bytes.
+     * The default block size in bytes, chosen for this system by
+     *  {@link SystemProfile#getBlockSize()} (64 KiB on most machines).
      * Given a method {@code streamAction(...)} whose parameter list does
      *  not end with {@code int blockSize}, wrappers are provided that call
-     *  {@code streamAction(..., DEFAULT_BLOCK_SIZE)}.
+     *  {@code streamAction(..., DEFAULT_BLOCK_SIZE)}, except where noted
+     *  (see {@link #DEFAULT_WRITE_CHUNK_SIZE}).
      */
-    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    public static final int DEFAULT_BLOCK_SIZE = Sys.getProfile().getBlockSize();
+
+    /**
+     * The default largest single write, in bytes, for methods that write
+     *  straight from an array (such as {@link #writeToStream(byte[], OutputStream)}
+     *  and {@link #writeToFile(byte[], File)}) and so need no buffer. Their
+     *  wrappers use this instead of {@link #DEFAULT_BLOCK_SIZE}.
+     */
+    public static final int DEFAULT_WRITE_CHUNK_SIZE = 1 << 20;
 
     /**
      * The base for all other methods in this class.
      *
      * It copies all remaining bytes until the EOF from {@code from} to
      *  {@code to}. This is done in buffers of {@code blockSize}
-     *  bytes.
+     *  bytes, taken from {@link BufferPool#getDefault()}.
      *
      * This method closes both files at the end.
      *
+     * If both streams are plain {@link FileInputStream} and
+     *  {@link FileOutputStream} objects, the copy is handed to
+     *  {@link #copyChannels} so the kernel can do it without passing the
+     *  bytes through the Java heap.
+     *
      * @param from The source stream
      * @param to The destination stream
      * @param blockSize The size of the buffer to be used
@@ -64,19 +111,54 @@ public class StreamUtils {
      *  {@link OutputStream#write(byte[], int, int)}.
      */
     public static void copyStreams(InputStream from, OutputStream to, int blockSize) throws IOException {
-        byte[] buffer = new byte[blockSize];
-        int bytesRead;
-        while ((bytesRead = from.read(buffer) /* Read bytes into buffer */)
-                != -1 /* Check that EOF not reached */) {
-            // Write buffer into destination
-            to.write(buffer, 0, bytesRead);
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        long copied = 0;
+        boolean failed = true;
+        try {
+            copied = copyStreamsCounted(from, to, blockSize);
+            failed = false;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.COPY, copied, start, blockSize, failed);
+        }
+    }
+
+    /**
+     * The engine behind {@link #copyStreams}, without the metrics.
+     *
+     * @return The number of bytes copied
+     */
+    private static long copyStreamsCounted(InputStream from, OutputStream to, int blockSize) throws IOException {
+        // Subclasses may override read/write, so only the exact classes are
+        //  safe to bypass
+        if (from.getClass() == FileInputStream.class && to.getClass() == FileOutputStream.class) {
+            // Closing the channels closes the streams too
+            return copyChannelsCounted(((FileInputStream) from).getChannel(),
+                    ((FileOutputStream) to).getChannel(), blockSize);
+        }
+
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquire(blockSize);
+        long copied = 0;
+        try {
+            int bytesRead;
+            while ((bytesRead = from.read(buffer, 0, blockSize) /* Read bytes into buffer */)
+                    != -1 /* Check that EOF not reached */) {
+                // Write buffer into destination
+                to.write(buffer, 0, bytesRead);
+                copied += bytesRead;
+            }
+        } finally {
+            pool.release(buffer);
         }
         from.close();
         to.close();
+        return copied;
     }
 
     /**
-     * Wrapper for {@link #copyStreams} using {@value #DEFAULT_BLOCK_SIZE}.
+     * Wrapper for {@link #copyStreams} using {@link #DEFAULT_BLOCK_SIZE}.
      *
      * @param from The source stream
      * @param to The destination stream
@@ -87,6 +169,312 @@ public class StreamUtils {
         copyStreams(from, to, DEFAULT_BLOCK_SIZE);
     }
 
+    /**
+     * Like {@link #copyStreams}, but reads on a separate thread so that
+     *  reading and writing overlap. Useful when both ends are slow (for
+     *  example a decompressing or network-backed source and a slow sink),
+     *  as the copy then takes about as long as the slower side rather than
+     *  both added together.
+     *
+     * The reader fills up to {@code depth} buffers of {@code blockSize}
+     *  bytes ahead of the writer, then waits for the writer to catch up. An
+     *  error on either side stops the copy and is thrown from this method.
+     *
+     * This method closes both streams at the end.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @param blockSize The size of each buffer
+     * @param depth The number of buffers the reader may fill ahead
+     * @throws IOException See {@link InputStream#read(byte[], int, int)} and
+     *  {@link OutputStream#write(byte[], int, int)}.
+     */
+    public static void copyStreamsPipelined(InputStream from, OutputStream to, int blockSize, int depth)
+            throws IOException {
+        PipelinedCopy.copy(from, to, blockSize, depth);
+    }
+
+    /**
+     * Wrapper for {@link #copyStreamsPipelined} using a {@code blockSize} of
+     *  {@link #DEFAULT_BLOCK_SIZE} and a {@code depth} of 4.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @throws IOException
+     * @see #copyStreamsPipelined
+     */
+    public static void copyStreamsPipelined(InputStream from, OutputStream to) throws IOException {
+        copyStreamsPipelined(from, to, DEFAULT_BLOCK_SIZE, 4);
+    }
+
+    /**
+     * Like {@link #copyStreams}, but also feeds every byte through each of
+     *  {@code checksums} and {@code digests} as it goes past, so a copy can
+     *  be verified without reading the data a second time.
+     *
+     * Any {@link Checksum} ({@link java.util.zip.CRC32},
+     *  {@link java.util.zip.Adler32}, or {@code CRC32C} on Java 9+) or
+     *  {@link MessageDigest} can be used. They should be freshly created (or
+     *  reset), as this method only updates them.
+     *
+     * This method closes both streams at the end.
+     *
+     * @param from The source stream
+     * @param to The destination stream
+     * @param blockSize The size of the buffer to be used
+     * @param checksums The checksums to update
+     * @param digests The digests to update
+     * @return The number of bytes copied, and the final checksum and digest values
+     * @throws IOException See {@link InputStream#read(byte[], int, int)} and
+     *  {@link OutputStream#write(byte[], int, int)}.
+     */
+    public static DigestResult copyStreamsDigesting(InputStream from, OutputStream to, int blockSize,
+                                                    Checksum[] checksums, MessageDigest... digests)
+            throws IOException {
+        try {
+            return new DigestResult(copyDigesting(from, to, blockSize, checksums, digests), checksums, digests);
+        } finally {
+            try {
+                from.close();
+            } finally {
+                to.close();
+            }
+        }
+    }
+
+    /**
+     * Feeds all remaining bytes until EOF from {@code in} through each of
+     *  {@code checksums} and {@code digests}, using the same engine as
+     *  {@link #copyStreamsDigesting}.
+     *
+     * This method closes {@code in} at the end.
+     *
+     * @param in The source stream
+     * @param blockSize The size of the buffer to be used
+     * @param checksums The checksums to update
+     * @param digests The digests to update
+     * @return The number of bytes read, and the final checksum and digest values
+     * @throws IOException See {@link InputStream#read(byte[], int, int)}
+     * @see #copyStreamsDigesting
+     */
+    public static DigestResult digestStream(InputStream in, int blockSize,
+                                            Checksum[] checksums, MessageDigest... digests) throws IOException {
+        try {
+            return new DigestResult(copyDigesting(in, null, blockSize, checksums, digests), checksums, digests);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Feeds the whole of {@code from} through each of {@code checksums} and
+     *  {@code digests}. Files of at least {@link SystemProfile#getMapThreshold()}
+     *  bytes are memory-mapped rather than read, so they never have to be
+     *  copied onto the heap (except for checksums other than {@link CRC32}
+     *  and {@link Adler32}, which can only take arrays on Java 8); smaller
+     *  ones are cheaper to just read.
+     *
+     * @param from The {@link File} to hash
+     * @param checksums The checksums to update
+     * @param digests The digests to update
+     * @return The size of the file, and the final checksum and digest values
+     * @throws IOException
+     * @see #copyStreamsDigesting
+     */
+    public static DigestResult digestFile(File from, Checksum[] checksums, MessageDigest... digests)
+            throws IOException {
+        if (from.length() < Sys.getProfile().getMapThreshold())
+            return digestStream(new FileInputStream(from), DEFAULT_BLOCK_SIZE, checksums, digests);
+        try (MappedFile mapped = mapWholeFile(from)) {
+            for (int i = 0; i < mapped.getSegmentCount(); i++) {
+                ByteBuffer segment = mapped.getSegment(i);
+                for (Checksum checksum : checksums)
+                    updateChecksum(checksum, segment.duplicate());
+                for (MessageDigest digest : digests)
+                    digest.update(segment.duplicate());
+            }
+            return new DigestResult(mapped.size(), checksums, digests);
+        }
+    }
+
+    private static long copyDigesting(InputStream from, OutputStream to, int blockSize,
+                                      Checksum[] checksums, MessageDigest[] digests) throws IOException {
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquire(blockSize);
+        try {
+            long total = 0;
+            int bytesRead;
+            while ((bytesRead = from.read(buffer, 0, blockSize)) != -1) {
+                for (Checksum checksum : checksums)
+                    checksum.update(buffer, 0, bytesRead);
+                for (MessageDigest digest : digests)
+                    digest.update(buffer, 0, bytesRead);
+                if (to != null)
+                    to.write(buffer, 0, bytesRead);
+                total += bytesRead;
+            }
+            return total;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private static void updateChecksum(Checksum checksum, ByteBuffer bytes) {
+        if (checksum instanceof CRC32) {
+            ((CRC32) checksum).update(bytes);
+        } else if (checksum instanceof Adler32) {
+            ((Adler32) checksum).update(bytes);
+        } else {
+            BufferPool pool = BufferPool.getDefault();
+            byte[] array = pool.acquire(DEFAULT_WRITE_CHUNK_SIZE);
+            try {
+                while (bytes.hasRemaining()) {
+                    int chunk = Math.min(array.length, bytes.remaining());
+                    bytes.get(array, 0, chunk);
+                    checksum.update(array, 0, chunk);
+                }
+            } finally {
+                pool.release(array);
+            }
+        }
+    }
+
+    /**
+     * Copies all remaining bytes until the EOF from {@code from} to
+     *  {@code to}.
+     *
+     * If either channel is a {@link FileChannel}, the copy is done with
+     *  {@link FileChannel#transferTo} or {@link FileChannel#transferFrom},
+     *  which lets the kernel move the bytes directly. Otherwise (or if the
+     *  kernel stops transferring early) the remaining bytes are copied
+     *  through a pooled direct buffer of {@code blockSize} bytes, so they
+     *  never touch the Java heap.
+     *
+     * This method closes both channels at the end.
+     *
+     * @param from The source channel
+     * @param to The destination channel
+     * @param blockSize The size of the buffer to be used
+     * @throws IOException See {@link ReadableByteChannel#read} and
+     *  {@link WritableByteChannel#write}.
+     */
+    public static void copyChannels(ReadableByteChannel from, WritableByteChannel to, int blockSize)
+            throws IOException {
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        long copied = 0;
+        boolean failed = true;
+        try {
+            copied = copyChannelsCounted(from, to, blockSize);
+            failed = false;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.COPY, copied, start, blockSize, failed);
+        }
+    }
+
+    /**
+     * The engine behind {@link #copyChannels}, without the metrics.
+     *
+     * @return The number of bytes copied
+     */
+    private static long copyChannelsCounted(ReadableByteChannel from, WritableByteChannel to, int blockSize)
+            throws IOException {
+        try {
+            long copied = 0;
+            if (from instanceof FileChannel) {
+                copied = transferFromFile((FileChannel) from, to);
+            } else if (to instanceof FileChannel) {
+                copied = transferToFile(from, (FileChannel) to, blockSize);
+            }
+            return copied + copyChannelsBuffered(from, to, blockSize);
+        } finally {
+            try {
+                from.close();
+            } finally {
+                to.close();
+            }
+        }
+    }
+
+    /**
+     * Wrapper for {@link #copyChannels} using {@link #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param from The source channel
+     * @param to The destination channel
+     * @throws IOException
+     * @see #copyChannels
+     */
+    public static void copyChannels(ReadableByteChannel from, WritableByteChannel to) throws IOException {
+        copyChannels(from, to, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Sends as much of {@code from} (starting at its current position) as
+     *  the kernel will accept through {@link FileChannel#transferTo}, then
+     *  leaves {@code from} positioned after the last byte sent.
+     */
+    private static long transferFromFile(FileChannel from, WritableByteChannel to) throws IOException {
+        long initial = from.position();
+        long position = initial;
+        long size = from.size();
+        while (position < size) {
+            long sent = from.transferTo(position, size - position, to);
+            if (sent <= 0)
+                // Kernel gave up (or the file shrank); let the caller
+                //  finish using the buffered path
+                break;
+            position += sent;
+        }
+        from.position(position);
+        return position - initial;
+    }
+
+    /**
+     * Pulls bytes from {@code from} into {@code to} (starting at its current
+     *  position) using {@link FileChannel#transferFrom}, in steps of at
+     *  least {@code blockSize} bytes, then leaves {@code to} positioned after
+     *  the last byte received.
+     */
+    private static long transferToFile(ReadableByteChannel from, FileChannel to, int blockSize)
+            throws IOException {
+        long step = Math.max(blockSize, 1 << 20);
+        long initial = to.position();
+        long position = initial;
+        long received;
+        // A blocking source only gives back 0 at EOF; anything left over in
+        //  a non-blocking source will be picked up by the buffered path
+        while ((received = to.transferFrom(from, position, step)) > 0)
+            position += received;
+        to.position(position);
+        return position - initial;
+    }
+
+    /**
+     * Copies through a pooled direct buffer, so the bytes never pass
+     *  through the Java heap.
+     */
+    private static long copyChannelsBuffered(ReadableByteChannel from, WritableByteChannel to, int blockSize)
+            throws IOException {
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer buffer = pool.acquireDirect(blockSize);
+        try {
+            long copied = 0;
+            buffer.limit(blockSize);
+            while (from.read(buffer) != -1) {
+                buffer.flip();
+                copied += buffer.remaining();
+                while (buffer.hasRemaining())
+                    to.write(buffer);
+                buffer.clear();
+                buffer.limit(blockSize);
+            }
+            return copied;
+        } finally {
+            pool.releaseDirect(buffer);
+        }
+    }
+
     /**
      * Reads all remaining bytes until EOF from {@code in} into a
      *  {@link ByteArrayOutputStream}. Intended use is one of: <blockquote><pre>
@@ -101,16 +489,27 @@ public class StreamUtils {
      * @return A {@link ByteArrayOutputStream} containing the contents of {@code in}
      * @throws IOException
      * @see #copyStreams
+     * @see #readWholeStreamSegmented
      */
     public static ByteArrayOutputStream readWholeStream(InputStream in, int blockSize) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(in.available());
-        copyStreams(in, baos, blockSize);
-        return baos;
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        long copied = 0;
+        boolean failed = true;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(in.available());
+            copied = copyStreamsCounted(in, baos, blockSize);
+            failed = false;
+            return baos;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.READ, copied, start, blockSize, failed);
+        }
     }
 
     /**
      * Wrapper for {@link #readWholeStream} using a {@code blockSize} of
-     *  {@value #DEFAULT_BLOCK_SIZE}.
+     *  {@link #DEFAULT_BLOCK_SIZE}.
      *
      * @param in The source stream
      * @return A {@link ByteArrayOutputStream} containing the contents of {@code in}
@@ -121,6 +520,53 @@ public class StreamUtils {
         return readWholeStream(in, DEFAULT_BLOCK_SIZE);
     }
 
+    /**
+     * Reads all remaining bytes until EOF from {@code in} into a
+     *  {@link SegmentedOutputStream} made of {@code segmentSize}-byte
+     *  segments. The bytes are read straight into the segments, and are
+     *  never copied again as the result grows, so this suits large streams
+     *  of unknown length better than {@link #readWholeStream}.
+     *
+     * This method closes {@code in} at the end.
+     *
+     * @param in The source stream
+     * @param segmentSize The size of each segment of the result
+     * @return A {@link SegmentedOutputStream} containing the contents of {@code in}
+     * @throws IOException See {@link InputStream#read(byte[], int, int)}
+     */
+    public static SegmentedOutputStream readWholeStreamSegmented(InputStream in, int segmentSize)
+            throws IOException {
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        SegmentedOutputStream result = new SegmentedOutputStream(segmentSize);
+        boolean failed = true;
+        try {
+            result.readFrom(in);
+            failed = false;
+            return result;
+        } finally {
+            try {
+                in.close();
+            } finally {
+                if (metrics != null)
+                    metrics.record(IoMetrics.Operation.READ, failed ? 0 : result.size(), start, segmentSize, failed);
+            }
+        }
+    }
+
+    /**
+     * Wrapper for {@link #readWholeStreamSegmented} using segments of
+     *  {@value SegmentedOutputStream#DEFAULT_SEGMENT_SIZE} bytes.
+     *
+     * @param in The source stream
+     * @return A {@link SegmentedOutputStream} containing the contents of {@code in}
+     * @throws IOException
+     * @see #readWholeStreamSegmented
+     */
+    public static SegmentedOutputStream readWholeStreamSegmented(InputStream in) throws IOException {
+        return readWholeStreamSegmented(in, SegmentedOutputStream.DEFAULT_SEGMENT_SIZE);
+    }
+
     /**
      * Wrapper for {@link #readWholeStream} that creates a
      *  {@link FileInputStream} from {@code from}.
@@ -137,7 +583,7 @@ public class StreamUtils {
 
     /**
      * Wrapper for {@link #readWholeFile} using a {@code blockSize} of
-     *  {@value #DEFAULT_BLOCK_SIZE}.
+     *  {@link #DEFAULT_BLOCK_SIZE}.
      *
      * @param from The {@link File} to read from
      * @return A {@link ByteArrayOutputStream} containing the contents of the file
@@ -164,7 +610,7 @@ public class StreamUtils {
 
     /**
      * Wrapper for {@link #readWholeFile(String, int)} using a
-     *  {@code blockSize} of {@value #DEFAULT_BLOCK_SIZE}.
+     *  {@code blockSize} of {@link #DEFAULT_BLOCK_SIZE}.
      *
      * @param fileName The {@link String} path of the file
      * @return A {@link ByteArrayOutputStream} containing the contents of the file
@@ -176,23 +622,400 @@ public class StreamUtils {
     }
 
     /**
-     * Writes the bytes {@code toWrite} into {@code out} using a
-     *  {@link ByteArrayInputStream} and {@link #copyStreams}.
+     * Reads the whole of {@code from} into a single array sized from the
+     *  file's length, without the extra copies made by
+     *  {@link #readWholeFile}. Intended use is one of: <blockquote><pre>
+     *      readWholeFileSlice(file).array()
+     *      readWholeFileSlice(file).toString(charset)
+     *  </pre></blockquote>
      *
-     * @param toWrite The bytes to write
-     * @param out The destination stream
+     * If the file changes size while it is being read, the result still
+     *  covers everything up to the EOF; it's just no longer guaranteed
+     *  that the backing array is exactly the right size.
+     *
+     * @param from The {@link File} to read from
+     * @return A {@link ByteSlice} containing the contents of the file
+     * @throws IOException
+     */
+    public static ByteSlice readWholeFileSlice(File from) throws IOException {
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        ByteSlice result = null;
+        try (FileChannel channel = FileChannel.open(from.toPath(), StandardOpenOption.READ)) {
+            result = readWholeChannel(channel, channel.size());
+            return result;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.READ, result == null ? 0 : result.length(), start,
+                        MAX_READ_SIZE, result == null);
+        }
+    }
+
+    /**
+     * Wrapper for {@link #readWholeFileSlice(File)} that creates a
+     *  {@link File} from {@code fileName}.
+     *
+     * @param fileName The {@link String} path of the file
+     * @return A {@link ByteSlice} containing the contents of the file
+     * @throws IOException
+     * @see #readWholeFileSlice(File)
+     */
+    public static ByteSlice readWholeFileSlice(String fileName) throws IOException {
+        return readWholeFileSlice(new File(fileName));
+    }
+
+    /**
+     * Reads the whole of {@code from} into {@code into}, starting at its
+     *  position, which is left just past the last byte read. Reading into a
+     *  direct buffer keeps the contents off the Java heap entirely.
+     *
+     * @param from The {@link File} to read from
+     * @param into The buffer to fill
+     * @return {@code into}
+     * @throws IOException
+     * @throws BufferOverflowException If the file doesn't fit in the space
+     *  remaining in {@code into}
+     * @see #readWholeFileDirect
+     */
+    public static ByteBuffer readWholeFile(File from, ByteBuffer into) throws IOException {
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        int initial = into.position();
+        boolean failed = true;
+        try (FileChannel channel = FileChannel.open(from.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > into.remaining())
+                throw new BufferOverflowException();
+            while (channel.read(into) != -1) {
+                if (!into.hasRemaining()) {
+                    // Full; make sure the file hasn't grown past it
+                    if (channel.position() < channel.size())
+                        throw new BufferOverflowException();
+                    break;
+                }
+            }
+            failed = false;
+            return into;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.READ, failed ? 0 : into.position() - initial, start,
+                        into.capacity(), failed);
+        }
+    }
+
+    /**
+     * Reads the whole of {@code from} into a direct buffer from the
+     *  {@link BufferPool#getDefault() default pool}. Intended use:
+     *  <blockquote><pre>
+     *      ByteBuffer contents = readWholeFileDirect(file);
+     *      try {
+     *          channel.write(contents);
+     *      } finally {
+     *          BufferPool.getDefault().releaseDirect(contents);
+     *      }
+     *  </pre></blockquote>
+     *
+     * @param from The {@link File} to read from
+     * @return A direct buffer holding the file's contents between its
+     *  position (0) and limit, to be given back with
+     *  {@link BufferPool#releaseDirect} when done
+     * @throws IOException
+     * @throws BufferOverflowException If the file grows while it's being read
+     */
+    public static ByteBuffer readWholeFileDirect(File from) throws IOException {
+        long size = from.length();
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Too large to read into a buffer: " + size + " bytes");
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer buffer = pool.acquireDirect((int) size);
+        try {
+            buffer.limit((int) size);
+            readWholeFile(from, buffer).flip();
+            return buffer;
+        } catch (IOException | RuntimeException e) {
+            pool.releaseDirect(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads many files at once, each as with {@link #readWholeFileSlice(File)},
+     *  with up to {@code maxConcurrent} reads in progress at a time. This
+     *  makes the most difference where each read has to wait on the device
+     *  or network, such as loading lots of small files from network storage.
+     *
+     * A file that can't be read doesn't stop the others; its result holds
+     *  the error instead. If {@code byteBudget} isn't negative, the files
+     *  read may add up to at most that many bytes, and files that would go
+     *  over it fail instead. As the files are read concurrently, which of
+     *  them those are depends on the order the reads finish in.
+     *
+     * @param files The files to read
+     * @param maxConcurrent The most reads to have in progress at once
+     * @param byteBudget The most bytes to read in total, or a negative
+     *  number for no limit
+     * @param executor The {@link Executor} to read on
+     * @return One result per file, in the same order as {@code files}
+     * @throws InterruptedIOException If interrupted while waiting for the
+     *  reads; reads already in progress are left to finish
+     */
+    public static List<LoadedFile> readWholeFiles(Collection<File> files, int maxConcurrent, long byteBudget,
+                                                  Executor executor) throws IOException {
+        return BatchFileReader.read(files, maxConcurrent, byteBudget, executor);
+    }
+
+    /**
+     * Wrapper for {@link #readWholeFiles(Collection, int, long, Executor)}
+     *  with no byte budget, reading on the executor of
+     *  {@link AsyncStreamUtils#getDefaultScheduler()} (which uses virtual
+     *  threads where the JVM has them), with up to four reads per CPU in
+     *  progress at once.
+     *
+     * @param files The files to read
+     * @return One result per file, in the same order as {@code files}
+     * @throws IOException
+     */
+    public static List<LoadedFile> readWholeFiles(Collection<File> files) throws IOException {
+        return readWholeFiles(files, Math.max(8, Sys.getProfile().getParallelism() * 4), -1,
+                AsyncStreamUtils.getDefaultScheduler().getExecutor());
+    }
+
+    /**
+     * Wrapper for {@link #readWholeFiles(Collection)} that returns the results
+     *  keyed by file.
+     *
+     * @param files The files to read
+     * @return The result for each file, iterating in the same order as {@code files}
+     * @throws IOException
+     */
+    public static Map<File, LoadedFile> readWholeFilesAsMap(Collection<File> files) throws IOException {
+        Map<File, LoadedFile> results = new LinkedHashMap<>();
+        for (LoadedFile result : readWholeFiles(files))
+            results.put(result.getFile(), result);
+        return results;
+    }
+
+    /** The largest array most JVMs will allocate */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    /**
+     * The most requested from a channel in one read. Reading into a heap
+     *  buffer makes the JDK allocate (and cache) a temporary direct buffer
+     *  of the same size, so this keeps that bounded.
+     */
+    private static final int MAX_READ_SIZE = 1 << 20;
+
+    /**
+     * Reads {@code from} until EOF into an array of {@code expectedSize}
+     *  bytes, growing it only if there turns out to be more.
+     */
+    private static ByteSlice readWholeChannel(ReadableByteChannel from, long expectedSize) throws IOException {
+        if (expectedSize > MAX_ARRAY_SIZE)
+            throw new IOException("Too large to read into an array: " + expectedSize + " bytes");
+        byte[] array = new byte[(int) expectedSize];
+        int length = 0;
+        while (true) {
+            if (length == array.length) {
+                // Check for any more before (possibly needlessly) growing
+                ByteBuffer probe = ByteBuffer.allocate(1);
+                if (from.read(probe) <= 0)
+                    break;
+                if (length == MAX_ARRAY_SIZE)
+                    throw new IOException("Too large to read into an array");
+                array = Arrays.copyOf(array, (int) Math.min(MAX_ARRAY_SIZE,
+                        Math.max((long) length * 2, length + DEFAULT_BLOCK_SIZE)));
+                array[length++] = probe.get(0);
+            }
+            int bytesRead = from.read(ByteBuffer.wrap(array, length,
+                    Math.min(array.length - length, MAX_READ_SIZE)));
+            if (bytesRead == -1)
+                break;
+            length += bytesRead;
+        }
+        return new ByteSlice(array, 0, length);
+    }
+
+    /**
+     * Decodes all remaining bytes until EOF from {@code in} using
+     *  {@code charset}, reading {@code blockSize} bytes at a time and
+     *  decoding them straight into the result. Malformed input is replaced,
+     *  as with {@link String#String(byte[], Charset)}.
+     *
+     * This method closes {@code in} at the end.
+     *
+     * @param in The source stream
+     * @param charset The {@link Charset} to decode with
      * @param blockSize The size of the buffer to be used
+     * @return The decoded contents of {@code in}
+     * @throws IOException See {@link InputStream#read(byte[], int, int)}
+     */
+    public static String readWholeStreamAsString(InputStream in, Charset charset, int blockSize)
+            throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Leave room for at least one whole character
+        blockSize = Math.max(blockSize, 16);
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        long total = 0;
+        boolean failed = true;
+        BufferPool pool = BufferPool.getDefault();
+        byte[] array = pool.acquire(blockSize);
+        try {
+            CharBuffer chars = CharBuffer.allocate(
+                    (int) Math.min(MAX_ARRAY_SIZE, in.available() * (double) decoder.averageCharsPerByte()) + 1);
+            ByteBuffer bytes = ByteBuffer.wrap(array, 0, blockSize);
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                int bytesRead = in.read(array, bytes.position(), bytes.remaining());
+                if (bytesRead == -1) {
+                    endOfInput = true;
+                } else {
+                    bytes.position(bytes.position() + bytesRead);
+                    total += bytesRead;
+                }
+                bytes.flip();
+                CoderResult result;
+                while ((result = decoder.decode(bytes, chars, endOfInput)).isOverflow())
+                    chars = grow(chars);
+                if (result.isError())
+                    result.throwException();
+                bytes.compact();
+                bytes.limit(blockSize);
+            }
+            while (decoder.flush(chars).isOverflow())
+                chars = grow(chars);
+            chars.flip();
+            failed = false;
+            return chars.toString();
+        } finally {
+            pool.release(array);
+            try {
+                in.close();
+            } finally {
+                if (metrics != null)
+                    metrics.record(IoMetrics.Operation.READ, failed ? 0 : total, start, blockSize, failed);
+            }
+        }
+    }
+
+    /**
+     * Wrapper for {@link #readWholeStreamAsString} using a {@code blockSize}
+     *  of {@link #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param in The source stream
+     * @param charset The {@link Charset} to decode with
+     * @return The decoded contents of {@code in}
      * @throws IOException
-     * @see #copyStreams
+     * @see #readWholeStreamAsString
+     */
+    public static String readWholeStreamAsString(InputStream in, Charset charset) throws IOException {
+        return readWholeStreamAsString(in, charset, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Wrapper for {@link #readWholeStreamAsString} that creates a
+     *  {@link FileInputStream} from {@code from}. The result is sized from
+     *  the length of the file, so it normally doesn't need to grow.
+     *
+     * @param from The {@link File} to read from
+     * @param charset The {@link Charset} to decode with
+     * @param blockSize The size of the buffer to be used
+     * @return The decoded contents of the file
+     * @throws IOException
+     * @see #readWholeStreamAsString
+     */
+    public static String readWholeFileAsString(File from, Charset charset, int blockSize) throws IOException {
+        return readWholeStreamAsString(new FileInputStream(from), charset, blockSize);
+    }
+
+    /**
+     * Wrapper for {@link #readWholeFileAsString} using a {@code blockSize}
+     *  of {@link #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param from The {@link File} to read from
+     * @param charset The {@link Charset} to decode with
+     * @return The decoded contents of the file
+     * @throws IOException
+     * @see #readWholeFileAsString
+     */
+    public static String readWholeFileAsString(File from, Charset charset) throws IOException {
+        return readWholeFileAsString(from, charset, DEFAULT_BLOCK_SIZE);
+    }
+
+    private static CharBuffer grow(CharBuffer chars) {
+        if (chars.capacity() >= MAX_ARRAY_SIZE)
+            throw new OutOfMemoryError("Too large to decode into a String");
+        CharBuffer grown = CharBuffer.allocate(
+                (int) Math.min(MAX_ARRAY_SIZE, Math.max(chars.capacity() * 2L, DEFAULT_BLOCK_SIZE)));
+        chars.flip();
+        grown.put(chars);
+        return grown;
+    }
+
+    /**
+     * Maps the whole of {@code from} into memory as read-only, instead of
+     *  copying it onto the heap like {@link #readWholeFile} does. Intended
+     *  use is: <blockquote><pre>
+     *      try (MappedFile mapped = mapWholeFile(file)) {
+     *          ByteBuffer contents = mapped.getSegment(0);
+     *          ...
+     *      }
+     *  </pre></blockquote>
+     *
+     * Files over {@link MappedFile#MAX_SEGMENT_SIZE} bytes are mapped as
+     *  several segments.
+     *
+     * @param from The {@link File} to map
+     * @return A {@link MappedFile} which must be closed once it's no longer needed
+     * @throws IOException
+     * @see MappedFile
+     */
+    public static MappedFile mapWholeFile(File from) throws IOException {
+        return new MappedFile(from);
+    }
+
+    /**
+     * Wrapper for {@link #mapWholeFile(File)} that creates a {@link File}
+     *  from {@code fileName}.
+     *
+     * @param fileName The {@link String} path of the file
+     * @return A {@link MappedFile} which must be closed once it's no longer needed
+     * @throws IOException
+     * @see #mapWholeFile(File)
+     */
+    public static MappedFile mapWholeFile(String fileName) throws IOException {
+        return mapWholeFile(new File(fileName));
+    }
+
+    /**
+     * Writes the bytes {@code toWrite} into {@code out}, straight from the
+     *  array, in writes of at most {@code blockSize} bytes.
+     *
+     * This method closes {@code out} at the end.
+     *
+     * @param toWrite The bytes to write
+     * @param out The destination stream
+     * @param blockSize The largest number of bytes to write at once
+     * @throws IOException See {@link OutputStream#write(byte[], int, int)}
      */
     public static void writeToStream(byte[] toWrite, OutputStream out, int blockSize) throws IOException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(toWrite);
-        copyStreams(bais, out, blockSize);
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean failed = true;
+        try {
+            for (int offset = 0; offset < toWrite.length; offset += blockSize)
+                out.write(toWrite, offset, Math.min(blockSize, toWrite.length - offset));
+            failed = false;
+        } finally {
+            out.close();
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.WRITE, failed ? 0 : toWrite.length, start, blockSize, failed);
+        }
     }
 
     /**
      * Wrapper for {@link #writeToStream} using a {@code blockSize} of
-     *  {@value #DEFAULT_BLOCK_SIZE}.
+     *  {@value #DEFAULT_WRITE_CHUNK_SIZE}.
      *
      * @param toWrite The bytes to write
      * @param out The destination stream
@@ -200,26 +1023,27 @@ public class StreamUtils {
      * @see #writeToStream
      */
     public static void writeToStream(byte[] toWrite, OutputStream out) throws IOException {
-        writeToStream(toWrite, out, DEFAULT_BLOCK_SIZE);
+        writeToStream(toWrite, out, DEFAULT_WRITE_CHUNK_SIZE);
     }
 
     /**
-     * Wrapper for {@link #writeToStream} that converts {@code toWrite}
-     *  using {@link String#getBytes()}
+     * Wrapper for {@link #writeToStream(CharSequence, OutputStream, Charset, int)}
+     *  that encodes {@code toWrite} using the platform's default charset
+     *  (like {@link String#getBytes()}).
      *
      * @param toWrite The {@link String} to write
      * @param out The destination stream
-     * @param blockSize The size of the buffer to be used
+     * @param blockSize The largest number of bytes to write at once
      * @throws IOException
-     * @see #writeToStream
+     * @see #writeToStream(CharSequence, OutputStream, Charset, int)
      */
     public static void writeToStream(String toWrite, OutputStream out, int blockSize) throws IOException {
-        writeToStream(toWrite.getBytes(), out, blockSize);
+        writeToStream(toWrite, out, Charset.defaultCharset(), blockSize);
     }
 
     /**
      * Wrapper for {@link #writeToStream(String, OutputStream, int)}
-     *  using a {@code blockSize} of {@value #DEFAULT_BLOCK_SIZE}.
+     *  using a {@code blockSize} of {@value #DEFAULT_WRITE_CHUNK_SIZE}.
      *
      * @param toWrite The {@link String} to write
      * @param out The destination stream
@@ -227,26 +1051,34 @@ public class StreamUtils {
      * @see #writeToStream(String, OutputStream, int)
      */
     public static void writeToStream(String toWrite, OutputStream out) throws IOException {
-        writeToStream(toWrite, out, DEFAULT_BLOCK_SIZE);
+        writeToStream(toWrite, out, DEFAULT_WRITE_CHUNK_SIZE);
     }
 
     /**
-     * Writes the bytes {@code toWrite} into a {@link FileOutputStream}
-     *  constructed using {@code writeTo} using {@link #copyStreams}
+     * Writes the bytes {@code toWrite} into {@code writeTo}, replacing
+     *  its contents, in writes of at most {@code blockSize} bytes.
      *
      * @param toWrite The bytes to write
      * @param writeTo The {@link File} to write to
-     * @param blockSize The size of the buffer to be used
+     * @param blockSize The largest number of bytes to write at once
      * @throws IOException
-     * @see #copyStreams
      */
     public static void writeToFile(byte[] toWrite, File writeTo, int blockSize) throws IOException {
-        writeToStream(toWrite, new FileOutputStream(writeTo), blockSize);
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean failed = true;
+        try (FileChannel channel = new FileOutputStream(writeTo).getChannel()) {
+            writeChunked(toWrite, channel, blockSize);
+            failed = false;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.WRITE, failed ? 0 : toWrite.length, start, blockSize, failed);
+        }
     }
 
     /**
      * Wrapper for {@link #writeToFile} using a {@code blockSize} of
-     *  {@value #DEFAULT_BLOCK_SIZE}
+     *  {@value #DEFAULT_WRITE_CHUNK_SIZE}
      *
      * @param toWrite The bytes to write
      * @param writeTo The {@link File} to write to
@@ -254,7 +1086,7 @@ public class StreamUtils {
      * @see #writeToFile
      */
     public static void writeToFile(byte[] toWrite, File writeTo) throws IOException {
-        writeToFile(toWrite, writeTo, DEFAULT_BLOCK_SIZE);
+        writeToFile(toWrite, writeTo, DEFAULT_WRITE_CHUNK_SIZE);
     }
 
     /**
@@ -263,7 +1095,7 @@ public class StreamUtils {
      *
      * @param toWrite The bytes to write
      * @param fileName The path of the file to write to
-     * @param blockSize The size of the buffer to be used
+     * @param blockSize The largest number of bytes to write at once
      * @throws IOException
      * @see #writeToFile
      */
@@ -273,7 +1105,7 @@ public class StreamUtils {
 
     /**
      * Wrapper for {@link #writeToFile(byte[], String, int)} using a
-     *  {@code blockSize} of {@value #DEFAULT_BLOCK_SIZE}.
+     *  {@code blockSize} of {@value #DEFAULT_WRITE_CHUNK_SIZE}.
      *
      * @param toWrite The bytes to write
      * @param fileName The path of the file to write to
@@ -281,26 +1113,27 @@ public class StreamUtils {
      * @see #writeToFile(byte[], String, int)
      */
     public static void writeToFile(byte[] toWrite, String fileName) throws IOException {
-        writeToFile(toWrite, fileName, DEFAULT_BLOCK_SIZE);
+        writeToFile(toWrite, fileName, DEFAULT_WRITE_CHUNK_SIZE);
     }
 
     /**
-     * Wrapper for {@link #writeToFile} that converts {@code toWrite} using
-     *  {@link String#getBytes()}
+     * Wrapper for {@link #writeToFile(CharSequence, File, Charset, int)}
+     *  that encodes {@code toWrite} using the platform's default charset
+     *  (like {@link String#getBytes()}).
      *
      * @param toWrite The {@link String} to write
      * @param writeTo The {@link File} to write to
-     * @param blockSize The size of the buffer to be used
+     * @param blockSize The largest number of bytes to write at once
      * @throws IOException
-     * @see #writeToFile
+     * @see #writeToFile(CharSequence, File, Charset, int)
      */
     public static void writeToFile(String toWrite, File writeTo, int blockSize) throws IOException {
-        writeToFile(toWrite.getBytes(), writeTo, blockSize);
+        writeToFile(toWrite, writeTo, Charset.defaultCharset(), blockSize);
     }
 
     /**
      * Wrapper for {@link #writeToFile(String, File, int)} using a
-     *  {@code blockSize} of {@value #DEFAULT_BLOCK_SIZE}.
+     *  {@code blockSize} of {@value #DEFAULT_WRITE_CHUNK_SIZE}.
      *
      * @param toWrite The {@link String} to write
      * @param writeTo The {@link File} to write to
@@ -308,7 +1141,7 @@ public class StreamUtils {
      * @see #writeToFile(String, File, int)
      */
     public static void writeToFile(String toWrite, File writeTo) throws IOException {
-        writeToFile(toWrite, writeTo, DEFAULT_BLOCK_SIZE);
+        writeToFile(toWrite, writeTo, DEFAULT_WRITE_CHUNK_SIZE);
     }
 
     /**
@@ -317,7 +1150,7 @@ public class StreamUtils {
      *
      * @param toWrite The {@link String} to write
      * @param fileName The path of the file to write to
-     * @param blockSize The size of the buffer to be used
+     * @param blockSize The largest number of bytes to write at once
      * @throws IOException
      * @see #writeToFile(String, File, int)
      */
@@ -327,7 +1160,7 @@ public class StreamUtils {
 
     /**
      * Wrapper for {@link #writeToFile(String, String, int)} using a
-     *  {@code blockSize} of {@value #DEFAULT_BLOCK_SIZE}
+     *  {@code blockSize} of {@value #DEFAULT_WRITE_CHUNK_SIZE}
      *
      * @param toWrite The bytes to write
      * @param fileName The path of the file to write to
@@ -335,6 +1168,463 @@ public class StreamUtils {
      * @see #writeToFile(String, String, int)
      */
     public static void writeToFile(String toWrite, String fileName) throws IOException {
-        writeToFile(toWrite, fileName, DEFAULT_BLOCK_SIZE);
+        writeToFile(toWrite, fileName, DEFAULT_WRITE_CHUNK_SIZE);
+    }
+
+    /**
+     * Replaces the contents of {@code writeTo} with {@code toWrite}
+     *  atomically: readers (and anything looking after a crash) see either
+     *  the old contents or the new, never a half-written file.
+     *
+     * The bytes are written to a temporary file in the same directory, which
+     *  is flushed as required by {@code durability} and then renamed over
+     *  {@code writeTo}. With {@link Durability#FULL} the directory is
+     *  flushed as well, so the rename itself survives a crash.
+     *
+     * @param toWrite The bytes to write
+     * @param writeTo The {@link File} to replace
+     * @param durability How far to flush the data before returning
+     * @throws IOException If writing, flushing or renaming fails; the
+     *  original file is then left untouched
+     */
+    public static void writeToFileAtomic(byte[] toWrite, File writeTo, Durability durability)
+            throws IOException {
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean failed = true;
+        try {
+            Path target = writeTo.toPath().toAbsolutePath();
+            Path directory = target.getParent();
+            Path temp = createSiblingTemp(target);
+            try {
+                copyPermissions(target, temp);
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    writeChunked(toWrite, channel, DEFAULT_WRITE_CHUNK_SIZE);
+                    durability.sync(channel);
+                }
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            durability.syncDirectory(directory);
+            failed = false;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.WRITE, failed ? 0 : toWrite.length, start,
+                        DEFAULT_WRITE_CHUNK_SIZE, failed);
+        }
+    }
+
+    /**
+     * Creates an empty, uniquely named file next to {@code target}.
+     *
+     * Unlike {@link Files#createTempFile}, which always uses mode 0600, the
+     *  file is created with the default permissions, so a file that
+     *  replaces nothing ends up the same as one written normally.
+     */
+    private static Path createSiblingTemp(Path target) throws IOException {
+        while (true) {
+            Path temp = target.resolveSibling("." + target.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.newByteChannel(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW).close();
+                return temp;
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+
+    /**
+     * Gives {@code to} the POSIX permissions of {@code from}, if it exists
+     *  and the file system supports them.
+     */
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        if (view == null)
+            return;
+        Set<PosixFilePermission> permissions;
+        try {
+            permissions = view.readAttributes().permissions();
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        Files.setPosixFilePermissions(to, permissions);
+    }
+
+    /**
+     * Wrapper for {@link #writeToFileAtomic(byte[], File, Durability)} using
+     *  {@link Durability#FULL}.
+     *
+     * @param toWrite The bytes to write
+     * @param writeTo The {@link File} to replace
+     * @throws IOException
+     * @see #writeToFileAtomic(byte[], File, Durability)
+     */
+    public static void writeToFileAtomic(byte[] toWrite, File writeTo) throws IOException {
+        writeToFileAtomic(toWrite, writeTo, Durability.FULL);
+    }
+
+    /**
+     * Writes the bytes {@code toWrite} into {@code writeTo}, unless it
+     *  already holds exactly those bytes, in which case it's left alone
+     *  (along with its modification time).
+     *
+     * The sizes are compared first, so most changed files are written
+     *  without reading them. Same-sized files are compared a block at a
+     *  time, stopping at the first difference; files of at least
+     *  {@link SystemProfile#getMapThreshold()} bytes are memory-mapped for
+     *  the comparison instead of read.
+     *
+     * @param toWrite The bytes to write
+     * @param writeTo The {@link File} to write to
+     * @return {@code true} if the file was written, {@code false} if it
+     *  was already up to date
+     * @throws IOException
+     * @see #writeToFile(byte[], File)
+     */
+    public static boolean writeToFileIfChanged(byte[] toWrite, File writeTo) throws IOException {
+        if (writeTo.isFile() && writeTo.length() == toWrite.length && contentEquals(writeTo, toWrite))
+            return false;
+        writeToFile(toWrite, writeTo);
+        return true;
+    }
+
+    /**
+     * Wrapper for {@link #writeToFileIfChanged(byte[], File)} that encodes
+     *  {@code toWrite} using {@code charset} first.
+     *
+     * @param toWrite The characters to write
+     * @param writeTo The {@link File} to write to
+     * @param charset The {@link Charset} to encode with
+     * @return {@code true} if the file was written, {@code false} if it
+     *  was already up to date
+     * @throws IOException
+     * @see #writeToFileIfChanged(byte[], File)
+     */
+    public static boolean writeToFileIfChanged(CharSequence toWrite, File writeTo, Charset charset)
+            throws IOException {
+        return writeToFileIfChanged(toWrite.toString().getBytes(charset), writeTo);
+    }
+
+    /**
+     * @return {@code true} if {@code file} holds exactly {@code expected}
+     *  (which must be the same length)
+     */
+    private static boolean contentEquals(File file, byte[] expected) throws IOException {
+        if (expected.length >= Sys.getProfile().getMapThreshold()) {
+            try (MappedFile mapped = mapWholeFile(file)) {
+                if (mapped.size() != expected.length)
+                    return false;
+                int offset = 0;
+                for (int i = 0; i < mapped.getSegmentCount(); i++) {
+                    ByteBuffer segment = mapped.getSegment(i);
+                    int length = segment.remaining();
+                    if (!segment.equals(ByteBuffer.wrap(expected, offset, length)))
+                        return false;
+                    offset += length;
+                }
+                return true;
+            }
+        }
+
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquire(DEFAULT_BLOCK_SIZE);
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int bytesRead;
+            while ((bytesRead = in.read(buffer, 0, buffer.length)) != -1) {
+                if (bytesRead > expected.length - offset)
+                    return false;
+                if (!ByteBuffer.wrap(buffer, 0, bytesRead).equals(ByteBuffer.wrap(expected, offset, bytesRead)))
+                    return false;
+                offset += bytesRead;
+            }
+            return offset == expected.length;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the bytes {@code toWrite} onto the end of {@code writeTo},
+     *  creating it if it doesn't exist.
+     *
+     * @param toWrite The bytes to write
+     * @param writeTo The {@link File} to append to
+     * @param blockSize The largest number of bytes to write at once
+     * @throws IOException
+     */
+    public static void appendToFile(byte[] toWrite, File writeTo, int blockSize) throws IOException {
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean failed = true;
+        try (FileChannel channel = new FileOutputStream(writeTo, true).getChannel()) {
+            writeChunked(toWrite, channel, blockSize);
+            failed = false;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.WRITE, failed ? 0 : toWrite.length, start, blockSize, failed);
+        }
+    }
+
+    /**
+     * Wrapper for {@link #appendToFile} using a {@code blockSize} of
+     *  {@value #DEFAULT_WRITE_CHUNK_SIZE}.
+     *
+     * @param toWrite The bytes to write
+     * @param writeTo The {@link File} to append to
+     * @throws IOException
+     * @see #appendToFile
+     */
+    public static void appendToFile(byte[] toWrite, File writeTo) throws IOException {
+        appendToFile(toWrite, writeTo, DEFAULT_WRITE_CHUNK_SIZE);
+    }
+
+    /**
+     * Writes the bytes {@code toWrite} into {@code writeTo} starting at
+     *  byte {@code position}, leaving the rest of the file as it was. The
+     *  file is created if it doesn't exist, and extended if needed.
+     *
+     * @param toWrite The bytes to write
+     * @param writeTo The {@link File} to write to
+     * @param position The offset in the file to start writing at
+     * @throws IOException
+     */
+    public static void writeToFileAt(byte[] toWrite, File writeTo, long position) throws IOException {
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean failed = true;
+        try (FileChannel channel = FileChannel.open(writeTo.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (int offset = 0; offset < toWrite.length; offset += DEFAULT_WRITE_CHUNK_SIZE) {
+                ByteBuffer chunk = ByteBuffer.wrap(toWrite, offset,
+                        Math.min(DEFAULT_WRITE_CHUNK_SIZE, toWrite.length - offset));
+                while (chunk.hasRemaining())
+                    position += channel.write(chunk, position);
+            }
+            failed = false;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.WRITE, failed ? 0 : toWrite.length, start,
+                        DEFAULT_WRITE_CHUNK_SIZE, failed);
+        }
+    }
+
+    /**
+     * Writes each of {@code parts} in turn into {@code out}, as if they were
+     *  a single array. If {@code out} is a {@link FileOutputStream}, they are
+     *  sent using a single gathering write.
+     *
+     * This method closes {@code out} at the end.
+     *
+     * @param parts The arrays to write
+     * @param out The destination stream
+     * @throws IOException
+     */
+    public static void writeToStream(byte[][] parts, OutputStream out) throws IOException {
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean failed = true;
+        try {
+            if (out.getClass() == FileOutputStream.class) {
+                try (FileChannel channel = ((FileOutputStream) out).getChannel()) {
+                    writeGathering(wrapAll(parts), channel);
+                }
+            } else {
+                try {
+                    for (byte[] part : parts)
+                        out.write(part);
+                } finally {
+                    out.close();
+                }
+            }
+            failed = false;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.WRITE, failed ? 0 : totalLength(parts), start, 0, failed);
+        }
+    }
+
+    /**
+     * Writes each of {@code parts} in turn into {@code writeTo}, replacing
+     *  its contents, using a gathering write (so a header and body can go to
+     *  the kernel in one call).
+     *
+     * @param parts The arrays to write
+     * @param writeTo The {@link File} to write to
+     * @throws IOException
+     * @see FileChannel#write(ByteBuffer[])
+     */
+    public static void writeToFile(byte[][] parts, File writeTo) throws IOException {
+        writeToFile(wrapAll(parts), writeTo);
+    }
+
+    /**
+     * Writes the remaining bytes of each of {@code parts} in turn into
+     *  {@code writeTo}, replacing its contents, using a gathering write.
+     *  Direct buffers (such as those from {@link #readWholeFileDirect} or
+     *  {@link BufferPool#acquireDirect}) are written without being copied.
+     *
+     * @param parts The buffers to write
+     * @param writeTo The {@link File} to write to
+     * @throws IOException
+     * @see FileChannel#write(ByteBuffer[])
+     */
+    public static void writeToFile(ByteBuffer[] parts, File writeTo) throws IOException {
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        long total = 0;
+        for (ByteBuffer part : parts)
+            total += part.remaining();
+        boolean failed = true;
+        try (FileChannel channel = new FileOutputStream(writeTo).getChannel()) {
+            writeGathering(parts, channel);
+            failed = false;
+        } finally {
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.WRITE, failed ? 0 : total, start, 0, failed);
+        }
+    }
+
+    /**
+     * Encodes {@code toWrite} using {@code charset} and writes it into
+     *  {@code out}, a chunk of at most {@code blockSize} bytes at a time,
+     *  so that the whole encoded form never has to be held in memory.
+     *  Unmappable characters are replaced, as with
+     *  {@link String#getBytes(Charset)}.
+     *
+     * This method closes {@code out} at the end.
+     *
+     * @param toWrite The characters to write
+     * @param out The destination stream
+     * @param charset The {@link Charset} to encode with
+     * @param blockSize The size of the buffer to be used
+     * @throws IOException See {@link OutputStream#write(byte[], int, int)}
+     */
+    public static void writeToStream(CharSequence toWrite, OutputStream out, Charset charset, int blockSize)
+            throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Leave room for at least one whole character
+        blockSize = Math.max(blockSize, 16);
+        IoMetrics metrics = IoMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        long written = 0;
+        boolean failed = true;
+        BufferPool pool = BufferPool.getDefault();
+        byte[] array = pool.acquire(blockSize);
+        try {
+            CharBuffer chars = CharBuffer.wrap(toWrite);
+            ByteBuffer bytes = ByteBuffer.wrap(array, 0, blockSize);
+            CoderResult result;
+            while ((result = encoder.encode(chars, bytes, true)).isOverflow())
+                written += drain(bytes, out, blockSize);
+            if (result.isError())
+                result.throwException();
+            while (encoder.flush(bytes).isOverflow())
+                written += drain(bytes, out, blockSize);
+            written += drain(bytes, out, blockSize);
+            failed = false;
+        } finally {
+            pool.release(array);
+            out.close();
+            if (metrics != null)
+                metrics.record(IoMetrics.Operation.WRITE, failed ? 0 : written, start, blockSize, failed);
+        }
+    }
+
+    /**
+     * Wrapper for {@link #writeToStream(CharSequence, OutputStream, Charset, int)}
+     *  using a {@code blockSize} of {@link #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param toWrite The characters to write
+     * @param out The destination stream
+     * @param charset The {@link Charset} to encode with
+     * @throws IOException
+     * @see #writeToStream(CharSequence, OutputStream, Charset, int)
+     */
+    public static void writeToStream(CharSequence toWrite, OutputStream out, Charset charset)
+            throws IOException {
+        writeToStream(toWrite, out, charset, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Wrapper for {@link #writeToStream(CharSequence, OutputStream, Charset, int)}
+     *  that creates a {@link FileOutputStream} from {@code writeTo}.
+     *
+     * @param toWrite The characters to write
+     * @param writeTo The {@link File} to write to
+     * @param charset The {@link Charset} to encode with
+     * @param blockSize The size of the buffer to be used
+     * @throws IOException
+     * @see #writeToStream(CharSequence, OutputStream, Charset, int)
+     */
+    public static void writeToFile(CharSequence toWrite, File writeTo, Charset charset, int blockSize)
+            throws IOException {
+        writeToStream(toWrite, new FileOutputStream(writeTo), charset, blockSize);
+    }
+
+    /**
+     * Wrapper for {@link #writeToFile(CharSequence, File, Charset, int)}
+     *  using a {@code blockSize} of {@link #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param toWrite The characters to write
+     * @param writeTo The {@link File} to write to
+     * @param charset The {@link Charset} to encode with
+     * @throws IOException
+     * @see #writeToFile(CharSequence, File, Charset, int)
+     */
+    public static void writeToFile(CharSequence toWrite, File writeTo, Charset charset) throws IOException {
+        writeToFile(toWrite, writeTo, charset, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Writes out everything put into {@code bytes} so far, and empties it
+     *  ready for more.
+     *
+     * @return The number of bytes written
+     */
+    private static int drain(ByteBuffer bytes, OutputStream out, int blockSize) throws IOException {
+        int length = bytes.position();
+        out.write(bytes.array(), bytes.arrayOffset(), length);
+        bytes.clear();
+        bytes.limit(blockSize);
+        return length;
+    }
+
+    private static void writeChunked(byte[] toWrite, WritableByteChannel to, int blockSize) throws IOException {
+        for (int offset = 0; offset < toWrite.length; offset += blockSize) {
+            ByteBuffer chunk = ByteBuffer.wrap(toWrite, offset, Math.min(blockSize, toWrite.length - offset));
+            while (chunk.hasRemaining())
+                to.write(chunk);
+        }
+    }
+
+    private static void writeGathering(ByteBuffer[] parts, FileChannel to) throws IOException {
+        int first = 0;
+        while (first < parts.length) {
+            if (!parts[first].hasRemaining()) {
+                first++;
+                continue;
+            }
+            to.write(parts, first, parts.length - first);
+        }
+    }
+
+    private static long totalLength(byte[][] parts) {
+        long total = 0;
+        for (byte[] part : parts)
+            total += part.length;
+        return total;
+    }
+
+    private static ByteBuffer[] wrapAll(byte[][] parts) {
+        ByteBuffer[] buffers = new ByteBuffer[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            buffers[i] = ByteBuffer.wrap(parts[i]);
+        return buffers;
     }
 }
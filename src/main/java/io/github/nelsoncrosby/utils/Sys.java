@@ -79,6 +79,24 @@ public enum Sys {
         }
     }
 
+    /**
+     * Describes the hardware this JVM is running on: CPUs, memory, page and
+     *  cache line sizes, and any container limits.
+     *
+     * The system is probed the first time this is called, and the same
+     *  profile is returned from then on.
+     *
+     * @return The {@link SystemProfile} for this system
+     */
+    public static SystemProfile getProfile() {
+        return ProfileHolder.PROFILE;
+    }
+
+    /** Defers probing until the profile is first asked for */
+    private static final class ProfileHolder {
+        static final SystemProfile PROFILE = SystemProfile.probe();
+    }
+
 
     /**
      * Generates a private directory for this app.
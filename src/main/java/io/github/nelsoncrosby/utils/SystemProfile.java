@@ -0,0 +1,461 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The I/O-relevant characteristics of the machine the JVM is running on,
+ *  used to pick sensible defaults such as block sizes and thread counts.
+ *
+ * Obtained through {@link Sys#getProfile()}, which probes the system once
+ *  and caches the result. On Linux, most values come from {@code /proc},
+ *  {@code /sys} and the cgroup filesystem (so container limits are taken
+ *  into account); elsewhere, values that can't be found out fall back to
+ *  what the JVM reports, or to common defaults.
+ *
+ * @author Nelson Crosby
+ * @see Sys#getProfile()
+ */
+public final class SystemProfile {
+    /** Used when the page size can't be found out */
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    /** Used when the cache line size can't be found out */
+    public static final int DEFAULT_CACHE_LINE_SIZE = 64;
+
+    private static final int MIN_BLOCK_SIZE = 8 * 1024;
+    private static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    private final int logicalCpus;
+    private final int physicalCpus;
+    private final int pageSize;
+    private final int cacheLineSize;
+    private final long totalMemory;
+    private final long availableMemory;
+    private final double cpuLimit;
+    private final long memoryLimit;
+    private final ConcurrentHashMap<FileStore, FileSystemInfo> fileSystems = new ConcurrentHashMap<>();
+
+    SystemProfile(int logicalCpus, int physicalCpus, int pageSize, int cacheLineSize,
+                  long totalMemory, long availableMemory, double cpuLimit, long memoryLimit) {
+        this.logicalCpus = logicalCpus;
+        this.physicalCpus = physicalCpus;
+        this.pageSize = pageSize;
+        this.cacheLineSize = cacheLineSize;
+        this.totalMemory = totalMemory;
+        this.availableMemory = availableMemory;
+        this.cpuLimit = cpuLimit;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * @return The number of hardware threads this process may use, as
+     *  given by {@link Runtime#availableProcessors()}
+     */
+    public int getLogicalCpus() {
+        return logicalCpus;
+    }
+
+    /**
+     * @return An estimate of the number of physical cores, at most
+     *  {@link #getLogicalCpus()}, or the number of hardware threads if that
+     *  can't be found out
+     */
+    public int getPhysicalCpus() {
+        return physicalCpus;
+    }
+
+    /**
+     * @return The size of a memory page, in bytes
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return The size of a CPU cache line, in bytes
+     */
+    public int getCacheLineSize() {
+        return cacheLineSize;
+    }
+
+    /**
+     * @return The amount of physical memory, in bytes, or -1 if unknown
+     */
+    public long getTotalMemory() {
+        return totalMemory;
+    }
+
+    /**
+     * @return The amount of memory that was available when the system was
+     *  probed, in bytes, or -1 if unknown
+     */
+    public long getAvailableMemory() {
+        return availableMemory;
+    }
+
+    /**
+     * @return How many CPUs' worth of time the cgroup quota allows, or -1 if
+     *  there's no quota
+     */
+    public double getCpuLimit() {
+        return cpuLimit;
+    }
+
+    /**
+     * @return The cgroup memory limit in bytes, or -1 if there's no limit
+     */
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * @return The number of CPUs that can actually be kept busy: the
+     *  number of hardware threads, capped by any cgroup quota
+     */
+    public int getEffectiveCpus() {
+        if (cpuLimit <= 0)
+            return logicalCpus;
+        return (int) Math.max(1, Math.min(logicalCpus, Math.ceil(cpuLimit)));
+    }
+
+    /**
+     * @return The memory that can actually be used: the physical memory,
+     *  capped by any cgroup limit, or -1 if neither is known
+     */
+    public long getEffectiveMemory() {
+        if (memoryLimit <= 0)
+            return totalMemory;
+        return totalMemory <= 0 ? memoryLimit : Math.min(totalMemory, memoryLimit);
+    }
+
+    /**
+     * The number of threads worth using for CPU-bound work, such as
+     *  compression.
+     *
+     * @return {@link #getEffectiveCpus()}
+     */
+    public int getParallelism() {
+        return getEffectiveCpus();
+    }
+
+    /**
+     * A good buffer size for sequential reads and writes: sixteen pages,
+     *  kept between 8 KiB and 128 KiB, and shrunk where memory is scarce
+     *  (less than 256 MiB).
+     *
+     * @return The block size, in bytes (always a power of two)
+     */
+    public int getBlockSize() {
+        int size = Integer.highestOneBit(pageSize) * 16;
+        long memory = getEffectiveMemory();
+        if (memory > 0 && memory < 256L << 20)
+            size /= 4;
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /**
+     * The size from which a file is better mapped into memory than read.
+     *  Mapping has a fixed cost (setting up and tearing down the mapping,
+     *  and a page fault per page), which only pays off once a file spans
+     *  many blocks.
+     *
+     * @return The size in bytes; sixteen times {@link #getBlockSize()}
+     */
+    public long getMapThreshold() {
+        return 16L * getBlockSize();
+    }
+
+    /**
+     * Describes the filesystem holding {@code path}. The result is cached
+     *  per filesystem.
+     *
+     * @param path An existing file or directory
+     * @return The filesystem's characteristics
+     * @throws IOException If {@code path} doesn't exist, or its filesystem
+     *  can't be found
+     */
+    public FileSystemInfo getFileSystem(File path) throws IOException {
+        FileStore store = Files.getFileStore(path.toPath());
+        FileSystemInfo info = fileSystems.get(store);
+        if (info == null) {
+            info = new FileSystemInfo(store.type(), fileStoreBlockSize(store, pageSize));
+            FileSystemInfo existing = fileSystems.putIfAbsent(store, info);
+            if (existing != null)
+                info = existing;
+        }
+        return info;
+    }
+
+    @Override
+    public String toString() {
+        return "SystemProfile{logicalCpus=" + logicalCpus + ", physicalCpus=" + physicalCpus
+                + ", pageSize=" + pageSize + ", cacheLineSize=" + cacheLineSize
+                + ", totalMemory=" + totalMemory + ", availableMemory=" + availableMemory
+                + ", cpuLimit=" + cpuLimit + ", memoryLimit=" + memoryLimit + '}';
+    }
+
+    /**
+     * The characteristics of a filesystem.
+     */
+    public static final class FileSystemInfo {
+        private final String type;
+        private final int blockSize;
+
+        FileSystemInfo(String type, int blockSize) {
+            this.type = type;
+            this.blockSize = blockSize;
+        }
+
+        /**
+         * @return The filesystem type, such as {@code ext4}, {@code tmpfs} or {@code NTFS}
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return The filesystem's block size in bytes, or the page size
+         *  if this JVM can't tell (before Java 10)
+         */
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        /**
+         * @return {@code true} if files here are really kept in memory
+         */
+        public boolean isMemoryBacked() {
+            return type.equals("tmpfs") || type.equals("ramfs");
+        }
+
+        @Override
+        public String toString() {
+            return "FileSystemInfo{type=" + type + ", blockSize=" + blockSize + '}';
+        }
+    }
+
+    /**
+     * Probes the running system.
+     */
+    static SystemProfile probe() {
+        int logicalCpus = Runtime.getRuntime().availableProcessors();
+        int physicalCpus = logicalCpus;
+        int pageSize = unsafePageSize();
+        int cacheLineSize = DEFAULT_CACHE_LINE_SIZE;
+        long totalMemory = -1;
+        long availableMemory = -1;
+        double cpuLimit = -1;
+        long memoryLimit = -1;
+
+        if (Sys.SYSTEM == Sys.LINUX) {
+            String cpuInfo = readProcFile("/proc/cpuinfo");
+            if (cpuInfo != null) {
+                // cpuinfo lists every CPU on the host, so only use it to
+                //  estimate the cores among those this process may run on
+                int[] counts = parseCpuInfo(cpuInfo);
+                if (counts[1] > 0)
+                    physicalCpus = Math.min(counts[1], logicalCpus);
+            }
+            String lineSize = readProcFile("/sys/devices/system/cpu/cpu0/cache/index0/coherency_line_size");
+            if (lineSize != null)
+                cacheLineSize = (int) parseLong(lineSize, cacheLineSize);
+            String memInfo = readProcFile("/proc/meminfo");
+            if (memInfo != null) {
+                totalMemory = parseMemInfo(memInfo, "MemTotal");
+                availableMemory = parseMemInfo(memInfo, "MemAvailable");
+            }
+
+            // cgroup v2, then v1
+            String cpuMax = readProcFile("/sys/fs/cgroup/cpu.max");
+            if (cpuMax != null) {
+                cpuLimit = parseCpuMax(cpuMax);
+            } else {
+                String quota = readProcFile("/sys/fs/cgroup/cpu/cpu.cfs_quota_us");
+                String period = readProcFile("/sys/fs/cgroup/cpu/cpu.cfs_period_us");
+                if (quota != null && period != null)
+                    cpuLimit = parseCpuMax(quota + ' ' + period);
+            }
+            String memoryMax = readProcFile("/sys/fs/cgroup/memory.max");
+            if (memoryMax == null)
+                memoryMax = readProcFile("/sys/fs/cgroup/memory/memory.limit_in_bytes");
+            if (memoryMax != null)
+                memoryLimit = parseMemoryMax(memoryMax, totalMemory);
+        }
+
+        if (totalMemory < 0) {
+            totalMemory = osBeanValue("getTotalPhysicalMemorySize");
+            availableMemory = osBeanValue("getFreePhysicalMemorySize");
+        }
+        return new SystemProfile(logicalCpus, physicalCpus, pageSize, cacheLineSize,
+                totalMemory, availableMemory, cpuLimit, memoryLimit);
+    }
+
+    /**
+     * @return {logical CPUs, physical cores}, as counted from the
+     *  {@code processor}, {@code physical id} and {@code core id} lines of
+     *  {@code /proc/cpuinfo}, with 0 for anything that isn't listed
+     */
+    static int[] parseCpuInfo(String cpuInfo) {
+        int processors = 0;
+        Set<String> cores = new HashSet<>();
+        String physicalId = "0";
+        for (String line : cpuInfo.split("\n")) {
+            int colon = line.indexOf(':');
+            if (colon < 0)
+                continue;
+            String key = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (key.equals("processor"))
+                processors++;
+            else if (key.equals("physical id"))
+                physicalId = value;
+            else if (key.equals("core id"))
+                cores.add(physicalId + ':' + value);
+        }
+        return new int[] {processors, cores.size()};
+    }
+
+    /**
+     * @return The value of {@code field} in {@code /proc/meminfo} in bytes,
+     *  or -1 if it isn't there
+     */
+    static long parseMemInfo(String memInfo, String field) {
+        for (String line : memInfo.split("\n")) {
+            if (line.startsWith(field + ':')) {
+                String value = line.substring(field.length() + 1).trim();
+                if (value.endsWith("kB"))
+                    return parseLong(value.substring(0, value.length() - 2).trim(), -1) * 1024;
+                return parseLong(value, -1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a cgroup CPU quota, as {@code "<quota> <period>"} where the
+     *  quota may be {@code max} (v2) or {@code -1} (v1) for no limit.
+     *
+     * @return The number of CPUs the quota amounts to, or -1 for no limit
+     */
+    static double parseCpuMax(String cpuMax) {
+        String[] parts = cpuMax.trim().split("\\s+");
+        if (parts.length < 2)
+            return -1;
+        long quota = parseLong(parts[0], -1);
+        long period = parseLong(parts[1], -1);
+        if (quota <= 0 || period <= 0)
+            return -1;
+        return (double) quota / period;
+    }
+
+    /**
+     * Parses a cgroup memory limit. v2 uses {@code max} for no limit, while
+     *  v1 uses a huge number, so anything beyond the physical memory counts
+     *  as no limit too.
+     *
+     * @return The limit in bytes, or -1 for no limit
+     */
+    static long parseMemoryMax(String memoryMax, long totalMemory) {
+        long limit = parseLong(memoryMax.trim(), -1);
+        if (limit <= 0 || limit >= Long.MAX_VALUE / 2 || (totalMemory > 0 && limit >= totalMemory))
+            return -1;
+        return limit;
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Reads a small file from {@code /proc} or {@code /sys}, which report a
+     *  size of 0, so can't be read by size.
+     *
+     * @return Its contents, or {@code null} if it can't be read
+     */
+    private static String readProcFile(String path) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.US_ASCII);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * There's no public API for the page size, so this asks
+     *  {@code sun.misc.Unsafe}, if it can be reached.
+     */
+    private static int unsafePageSize() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return (Integer) unsafeClass.getMethod("pageSize").invoke(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return DEFAULT_PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Calls one of the {@code com.sun.management.OperatingSystemMXBean}
+     *  methods, which aren't on every JVM.
+     */
+    private static long osBeanValue(String methodName) {
+        try {
+            OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+            Method method = Class.forName("com.sun.management.OperatingSystemMXBean").getMethod(methodName);
+            return (Long) method.invoke(bean);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * {@code FileStore.getBlockSize()} only exists from Java 10.
+     */
+    private static int fileStoreBlockSize(FileStore store, int fallback) {
+        try {
+            long blockSize = (Long) FileStore.class.getMethod("getBlockSize").invoke(store);
+            return blockSize > 0 && blockSize <= Integer.MAX_VALUE ? (int) blockSize : fallback;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nelson Crosby
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.nelsoncrosby.utils;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Limits how many transfers (and how many bytes' worth of them) are in
+ *  progress at once, queueing the rest until earlier ones finish.
+ *
+ * Queued transfers are started in the order they were submitted. A single
+ *  transfer larger than the byte limit is still allowed, but only once
+ *  nothing else is in progress.
+ *
+ * @author Nelson Crosby
+ * @see AsyncStreamUtils
+ */
+public class TransferScheduler {
+    private final int maxTransfers;
+    private final long maxBytes;
+    private final Executor executor;
+
+    private final Queue<Pending<?>> queue = new ArrayDeque<>();
+    private int transfers;
+    private long bytes;
+    /** Set while this thread is starting queued transfers in {@link #finished} */
+    private final ThreadLocal<Boolean> draining = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
+    /**
+     * @param maxTransfers The most transfers to run at once
+     * @param maxBytes The most bytes to have in flight at once
+     * @param executor The {@link Executor} that blocking transfers (such as
+     *                 stream copies) are run on
+     */
+    public TransferScheduler(int maxTransfers, long maxBytes, Executor executor) {
+        if (maxTransfers <= 0 || maxBytes <= 0)
+            throw new IllegalArgumentException("maxTransfers and maxBytes must be positive");
+        this.maxTransfers = maxTransfers;
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+    }
+
+    /**
+     * @return The {@link Executor} that blocking transfers are run on
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Starts {@code transfer} as soon as there is room for it.
+     *
+     * @param size The number of bytes the transfer will hold in memory or
+     *             move; counted against the byte limit until it completes
+     * @param transfer Starts the transfer and returns its future
+     * @param <T> The result type of the transfer
+     * @return A future that completes with the transfer's result
+     */
+    public <T> CompletableFuture<T> submit(long size, Supplier<CompletableFuture<T>> transfer) {
+        Pending<T> pending = new Pending<>(Math.max(size, 0), transfer);
+        synchronized (this) {
+            if (!queue.isEmpty() || !hasRoomFor(pending.size)) {
+                queue.add(pending);
+                return pending.result;
+            }
+            reserve(pending.size);
+        }
+        start(pending);
+        return pending.result;
+    }
+
+    /**
+     * Runs the blocking {@code task} on this scheduler's {@link Executor}
+     *  as soon as there is room for it.
+     *
+     * @param size The number of bytes the task will hold in memory or move
+     * @param task The blocking task to run
+     * @param <T> The result type of the task
+     * @return A future that completes with the task's result
+     * @see #submit
+     */
+    public <T> CompletableFuture<T> submitBlocking(long size, BlockingTask<T> task) {
+        return submit(size, () -> {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            executor.execute(() -> {
+                try {
+                    future.complete(task.run());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+            return future;
+        });
+    }
+
+    /**
+     * @return The number of transfers currently running
+     */
+    public synchronized int getActiveTransfers() {
+        return transfers;
+    }
+
+    /**
+     * @return The number of bytes counted against the running transfers
+     */
+    public synchronized long getActiveBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of transfers waiting to start
+     */
+    public synchronized int getQueuedTransfers() {
+        return queue.size();
+    }
+
+    private boolean hasRoomFor(long size) {
+        return transfers == 0 || (transfers < maxTransfers && bytes + size <= maxBytes);
+    }
+
+    private void reserve(long size) {
+        transfers++;
+        bytes += size;
+    }
+
+    private <T> void start(Pending<T> pending) {
+        CompletableFuture<T> started;
+        try {
+            started = pending.transfer.get();
+        } catch (Throwable t) {
+            started = new CompletableFuture<>();
+            started.completeExceptionally(t);
+        }
+        started.whenComplete((value, error) -> {
+            finished(pending.size);
+            if (error != null)
+                pending.result.completeExceptionally(error);
+            else
+                pending.result.complete(value);
+        });
+    }
+
+    /**
+     * Releases a finished transfer's share of the limits, then starts as
+     *  many queued transfers as now fit.
+     *
+     * A transfer that completes straight away calls back into this method
+     *  from {@link #start}. Rather than recursing (once per queued
+     *  transfer, which can overflow the stack), such nested calls only
+     *  release, and leave starting the next transfer to the loop already
+     *  running further up the stack.
+     */
+    private void finished(long size) {
+        synchronized (this) {
+            transfers--;
+            bytes -= size;
+        }
+        if (draining.get())
+            return;
+        draining.set(true);
+        try {
+            while (true) {
+                Pending<?> next;
+                synchronized (this) {
+                    next = queue.peek();
+                    if (next == null || !hasRoomFor(next.size))
+                        return;
+                    queue.remove();
+                    reserve(next.size);
+                }
+                start(next);
+            }
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    /**
+     * A blocking piece of work, such as a stream copy.
+     *
+     * @param <T> The result type
+     */
+    public interface BlockingTask<T> {
+        T run() throws Exception;
+    }
+
+    private static class Pending<T> {
+        final long size;
+        final Supplier<CompletableFuture<T>> transfer;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Pending(long size, Supplier<CompletableFuture<T>> transfer) {
+            this.size = size;
+            this.transfer = transfer;
+        }
+    }
+}
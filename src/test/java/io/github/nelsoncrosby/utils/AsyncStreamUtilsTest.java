@@ -0,0 +1,38 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class AsyncStreamUtilsTest {
+    final byte[] testContent = (
+            "Lorem ipsum dolor sit amet, eu corpora adipiscing deterruisset " +
+            "pri. Quo ex fabellas eloquentiam, mel rebum viris nonumes id."
+    ).getBytes();
+
+    @Test
+    public void testFileRoundTrip() throws Exception {
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+
+        AsyncStreamUtils.writeToFileAsync(testContent, file).get(10, TimeUnit.SECONDS);
+        ByteSlice read = AsyncStreamUtils.readWholeFileAsync(file).get(10, TimeUnit.SECONDS);
+        assertArrayEquals(testContent, read.toByteArray());
+    }
+
+    @Test
+    public void testCopyAsync() throws Exception {
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        AsyncStreamUtils.copyAsync(new ByteArrayInputStream(testContent), destination, 3)
+                .get(10, TimeUnit.SECONDS);
+        assertArrayEquals(testContent, destination.toByteArray());
+    }
+}
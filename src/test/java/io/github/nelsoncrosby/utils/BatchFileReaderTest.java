@@ -0,0 +1,103 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class BatchFileReaderTest {
+
+    private static List<File> createFiles(int count) throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            File file = File.createTempFile("ncutils", ".txt");
+            file.deleteOnExit();
+            StreamUtils.writeToFile(("file " + i).getBytes(), file);
+            files.add(file);
+        }
+        return files;
+    }
+
+    @Test
+    public void testReadWholeFiles() throws Exception {
+        List<File> files = createFiles(50);
+        File missing = new File(files.get(0).getParentFile(), "ncutils-does-not-exist");
+        files.add(10, missing);
+
+        List<LoadedFile> results = StreamUtils.readWholeFiles(files);
+        assertEquals(51, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            LoadedFile result = results.get(i);
+            assertSame(files.get(i), result.getFile());
+            if (i == 10) {
+                assertFalse(result.isLoaded());
+                assertNotNull(result.getError());
+            } else {
+                assertTrue(result.isLoaded());
+                assertEquals("file " + (i < 10 ? i : i - 1), result.getContents().toString());
+            }
+        }
+
+        try {
+            results.get(10).getContents();
+            fail("Missing file should not have contents");
+        } catch (IOException expected) {
+        }
+
+        Map<File, LoadedFile> byFile = StreamUtils.readWholeFilesAsMap(files);
+        assertEquals("file 3", byFile.get(files.get(3)).getContents().toString());
+        assertFalse(byFile.get(missing).isLoaded());
+    }
+
+    @Test
+    public void testByteBudget() throws Exception {
+        // Each file is 6 bytes, so only 3 fit
+        List<File> files = createFiles(8);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<LoadedFile> results = StreamUtils.readWholeFiles(files, 2, 20, executor);
+            int loaded = 0;
+            for (LoadedFile result : results) {
+                if (result.isLoaded())
+                    loaded++;
+            }
+            assertEquals(3, loaded);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedExecution() throws Exception {
+        List<File> files = createFiles(5);
+        ExecutorService shutDown = Executors.newSingleThreadExecutor();
+        shutDown.shutdown();
+        for (LoadedFile result : StreamUtils.readWholeFiles(files, 2, -1, shutDown)) {
+            assertFalse(result.isLoaded());
+            assertTrue(result.getError().getCause() instanceof RejectedExecutionException);
+        }
+
+        // Once one worker is running, it reads everything the others would have
+        final AtomicInteger accepted = new AtomicInteger();
+        Executor acceptsOne = command -> {
+            if (accepted.getAndIncrement() > 0)
+                throw new RejectedExecutionException();
+            command.run();
+        };
+        for (LoadedFile result : StreamUtils.readWholeFiles(files, 3, -1, acceptsOne))
+            assertTrue(result.isLoaded());
+    }
+}
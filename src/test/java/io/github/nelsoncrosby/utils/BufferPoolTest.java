@@ -0,0 +1,81 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void testSizeClasses() throws Exception {
+        BufferPool pool = new BufferPool(1, 1);
+        assertEquals(BufferPool.MIN_POOLED_SIZE, pool.acquire(1).length);
+        assertEquals(1024, pool.acquire(1024).length);
+        assertEquals(2048, pool.acquire(1025).length);
+        // Too big to pool, so exactly what was asked for
+        assertEquals(BufferPool.MAX_POOLED_SIZE + 1, pool.acquire(BufferPool.MAX_POOLED_SIZE + 1).length);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        BufferPool pool = new BufferPool(1, 1);
+        byte[] first = pool.acquire(1000);
+        assertEquals(1, pool.getOutstanding());
+        pool.release(first);
+        assertEquals(0, pool.getOutstanding());
+
+        assertSame(first, pool.acquire(1000));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void testBoundedRetention() throws Exception {
+        BufferPool pool = new BufferPool(1, 1);
+        byte[] first = pool.acquire(1000);
+        byte[] second = pool.acquire(1000);
+        byte[] third = pool.acquire(1000);
+        // One goes to the thread cache, one to the stripe, one is dropped
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        pool.acquire(1000);
+        pool.acquire(1000);
+        pool.acquire(1000);
+        assertEquals(2, pool.getHits());
+        assertEquals(4, pool.getMisses());
+    }
+
+    @Test
+    public void testDirectBuffers() throws Exception {
+        BufferPool pool = new BufferPool(1, 1);
+        ByteBuffer first = pool.acquireDirect(1000);
+        assertTrue(first.isDirect());
+        assertEquals(1024, first.capacity());
+        first.position(10).limit(20);
+        pool.releaseDirect(first);
+
+        ByteBuffer again = pool.acquireDirect(600);
+        assertSame(first, again);
+        // Handed back cleared
+        assertEquals(0, again.position());
+        assertEquals(1024, again.limit());
+        assertEquals(1, pool.getHits());
+
+        // Arrays and direct buffers are pooled separately
+        pool.release(pool.acquire(1024));
+        assertEquals(2, pool.getMisses());
+
+        ByteBuffer large = pool.acquireDirect(BufferPool.MAX_POOLED_SIZE + 1);
+        assertEquals(BufferPool.MAX_POOLED_SIZE + 1, large.capacity());
+        pool.releaseDirect(large);
+        // Only "again" is still out
+        assertEquals(1, pool.getOutstanding());
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ByteSliceTest {
+    final byte[] testContent = "0123456789".getBytes();
+
+    @Test
+    public void testSharesBackingArray() throws Exception {
+        ByteSlice slice = new ByteSlice(testContent, 2, 5);
+        assertSame(testContent, slice.array());
+        assertEquals("23456", slice.toString());
+        assertEquals('2', slice.get(0));
+
+        ByteBuffer buffer = slice.toByteBuffer();
+        assertEquals(5, buffer.remaining());
+        assertEquals('2', buffer.get(0));
+    }
+
+    @Test
+    public void testToByteArrayCopies() throws Exception {
+        ByteSlice slice = new ByteSlice(testContent, 2, 5);
+        byte[] copy = slice.toByteArray();
+        assertArrayEquals("23456".getBytes(), copy);
+        assertNotSame(testContent, copy);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfRange() throws Exception {
+        new ByteSlice(testContent, 8, 5);
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class FileCacheTest {
+
+    private static File createFile(String contents) throws Exception {
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+        StreamUtils.writeToFile(contents.getBytes(), file);
+        return file;
+    }
+
+    @Test
+    public void testHitsAndReload() throws Exception {
+        File file = createFile("first");
+        FileCache cache = new FileCache(1 << 20);
+
+        assertEquals("first", new String(cache.getBytes(file)));
+        assertEquals("first", new String(cache.getBytes(file)));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(5, cache.getSize());
+
+        StreamUtils.writeToFile("second!".getBytes(), file);
+        assertEquals("second!", new String(cache.getBytes(file)));
+        assertEquals(2, cache.getMisses());
+        assertEquals(7, cache.getSize());
+
+        cache.invalidate(file);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testReadOnly() throws Exception {
+        ByteBuffer contents = new FileCache(1 << 20).get(createFile("shared"));
+        assertEquals(6, contents.remaining());
+        contents.put(0, (byte) 'x');
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        File a = createFile("aaaaaaaaaa");
+        File b = createFile("bbbbbbbbbb");
+        File c = createFile("cccccccccc");
+        File big = createFile("this one is too big to keep");
+        FileCache cache = new FileCache(25);
+
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c); // b is the least recently used
+        assertEquals(1, cache.getEvictions());
+        assertEquals(20, cache.getSize());
+
+        cache.get(a);
+        assertEquals(3, cache.getMisses());
+        cache.get(b);
+        assertEquals(4, cache.getMisses());
+
+        assertEquals("this one is too big to keep", new String(cache.getBytes(big)));
+        assertEquals(2, cache.getEntryCount());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+            contents.append(i);
+        final File file = createFile(contents.toString());
+        final FileCache cache = new FileCache(1 << 24);
+        final CountDownLatch start = new CountDownLatch(1);
+        final int expected = contents.length();
+
+        List<Thread> readers = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    start.await();
+                    assertEquals(expected, cache.get(file).remaining());
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        start.countDown();
+        for (Thread reader : readers)
+            reader.join();
+
+        assertTrue(failures.isEmpty());
+        assertEquals(1, cache.getMisses());
+        assertEquals(7, cache.getHits());
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class FileFollowerTest {
+
+    /** Collects everything a follower hands over */
+    private static class Recorder implements FileFollower.Listener {
+        final StringBuilder data = new StringBuilder();
+        final List<FileFollower.ResetReason> resets = new ArrayList<>();
+
+        @Override
+        public void onData(ByteSlice bytes, long offset) {
+            data.append(bytes.toString());
+        }
+
+        @Override
+        public void onReset(FileFollower.ResetReason reason) {
+            resets.add(reason);
+        }
+
+        String take() {
+            String taken = data.toString();
+            data.setLength(0);
+            return taken;
+        }
+    }
+
+    private static void append(File file, String text) throws Exception {
+        StreamUtils.appendToFile(text.getBytes(), file);
+    }
+
+    private static File createDirectory() throws Exception {
+        File directory = Files.createTempDirectory("ncutils-follow").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    @Test
+    public void testAppendsTruncationAndRotation() throws Exception {
+        File directory = createDirectory();
+        File file = new File(directory, "app.log");
+        file.deleteOnExit();
+        Recorder recorder = new Recorder();
+
+        try (FileFollower follower = new FileFollower(file)) {
+            // Nothing there yet
+            assertEquals(0, follower.poll(recorder));
+
+            append(file, "hello ");
+            assertEquals(6, follower.poll(recorder));
+            append(file, "world");
+            assertEquals(5, follower.poll(recorder));
+            assertEquals("hello world", recorder.take());
+            assertEquals(11, follower.getOffset());
+
+            StreamUtils.writeToFile("new".getBytes(), file);
+            follower.poll(recorder);
+            assertEquals("new", recorder.take());
+            assertEquals(FileFollower.ResetReason.TRUNCATED, recorder.resets.get(0));
+
+            // Rotate: the old file gets a last line after it's moved away
+            File rotated = new File(directory, "app.log.1");
+            rotated.deleteOnExit();
+            assertTrue(file.renameTo(rotated));
+            append(rotated, " old");
+            append(file, "fresh");
+            follower.poll(recorder);
+            assertEquals(" oldfresh", recorder.take());
+            assertEquals(FileFollower.ResetReason.ROTATED, recorder.resets.get(1));
+        }
+    }
+
+    @Test
+    public void testRecordsAndResume() throws Exception {
+        File directory = createDirectory();
+        File file = new File(directory, "records.log");
+        File offsetFile = new File(directory, "records.offset");
+        file.deleteOnExit();
+        offsetFile.deleteOnExit();
+        Recorder recorder = new Recorder();
+
+        try (FileFollower follower = new FileFollower(file, (byte) '\n')) {
+            follower.setOffsetFile(offsetFile);
+            append(file, "one\ntw");
+            follower.poll(recorder);
+            assertEquals("one\n", recorder.take());
+            append(file, "o\nthree");
+            follower.poll(recorder);
+            assertEquals("two\n", recorder.take());
+        }
+
+        append(file, "\n");
+        try (FileFollower follower = new FileFollower(file, (byte) '\n')) {
+            follower.setOffsetFile(offsetFile);
+            assertEquals(8, follower.getOffset());
+            follower.poll(recorder);
+            assertEquals("three\n", recorder.take());
+            assertTrue(recorder.resets.isEmpty());
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        File directory = createDirectory();
+        final File file = new File(directory, "stream.log");
+        file.deleteOnExit();
+        append(file, "a\n");
+
+        final FileFollower follower = new FileFollower(file, (byte) '\n');
+        follower.setPollInterval(10, TimeUnit.MILLISECONDS);
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+                append(file, "b\n");
+                Thread.sleep(50);
+                follower.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+
+        String all = follower.stream().map(ByteSlice::toString).collect(Collectors.joining());
+        writer.join();
+        assertEquals("a\nb\n", all);
+    }
+}
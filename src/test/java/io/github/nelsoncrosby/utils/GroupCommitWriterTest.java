@@ -0,0 +1,46 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class GroupCommitWriterTest {
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        File file = File.createTempFile("ncutils", ".log");
+        file.deleteOnExit();
+        final int threads = 8;
+        final int writesPerThread = 50;
+
+        try (final GroupCommitWriter writer = new GroupCommitWriter(file, Durability.DATA)) {
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < writesPerThread; i++)
+                            writer.write("0123456789\n".getBytes());
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers)
+                worker.join();
+
+            assertTrue(writer.getSyncCount() > 0);
+            assertTrue(writer.getSyncCount() <= threads * writesPerThread);
+        }
+
+        assertEquals(threads * writesPerThread * 11, file.length());
+    }
+}
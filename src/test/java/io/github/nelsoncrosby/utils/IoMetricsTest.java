@@ -0,0 +1,131 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class IoMetricsTest {
+    final byte[] testContent = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+
+    @After
+    public void disableMetrics() {
+        IoMetrics.disable();
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        IoMetrics.disable();
+        assertNull(IoMetrics.current());
+        StreamUtils.copyStreams(new ByteArrayInputStream(testContent), new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void testCountsCalls() throws Exception {
+        IoMetrics metrics = IoMetrics.enable();
+        final AtomicLong listened = new AtomicLong();
+        metrics.addListener((operation, bytes, nanos, blockSize, failed) -> listened.addAndGet(bytes));
+
+        StreamUtils.copyStreams(new ByteArrayInputStream(testContent), new ByteArrayOutputStream(), 16);
+        StreamUtils.readWholeStream(new ByteArrayInputStream(testContent));
+        StreamUtils.writeToStream(testContent, new ByteArrayOutputStream());
+
+        assertEquals(1, metrics.getCalls(IoMetrics.Operation.COPY));
+        assertEquals(testContent.length, metrics.getBytes(IoMetrics.Operation.COPY));
+        assertEquals(1, metrics.getBlockSizeCalls(IoMetrics.Operation.COPY)[4]);
+        assertEquals(1, metrics.getCalls(IoMetrics.Operation.READ));
+        assertEquals(1, metrics.getCalls(IoMetrics.Operation.WRITE));
+        assertEquals(testContent.length * 3, listened.get());
+
+        long latencyTotal = 0;
+        for (long count : metrics.getLatencyHistogram(IoMetrics.Operation.COPY))
+            latencyTotal += count;
+        assertEquals(1, latencyTotal);
+    }
+
+    @Test
+    public void testCountsErrors() throws Exception {
+        IoMetrics metrics = IoMetrics.enable();
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("expected");
+            }
+        };
+        try {
+            StreamUtils.copyStreams(failing, new ByteArrayOutputStream());
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, metrics.getErrors(IoMetrics.Operation.COPY));
+    }
+
+    @Test
+    public void testFailedCallsRecordNoBytes() throws Exception {
+        IoMetrics metrics = IoMetrics.enable();
+        final AtomicLong listened = new AtomicLong();
+        metrics.addListener((operation, bytes, nanos, blockSize, failed) -> listened.addAndGet(bytes));
+        // Fails after some bytes have already been read
+        InputStream failing = new InputStream() {
+            private int left = 100;
+
+            @Override
+            public int read() throws IOException {
+                if (left == 0)
+                    throw new IOException("expected");
+                left--;
+                return 'x';
+            }
+        };
+        try {
+            StreamUtils.readWholeStreamSegmented(failing, 16);
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, metrics.getErrors(IoMetrics.Operation.READ));
+        assertEquals(0, metrics.getBytes(IoMetrics.Operation.READ));
+        assertEquals(0, listened.get());
+    }
+
+    @Test
+    public void testCountsFileWrites() throws Exception {
+        IoMetrics metrics = IoMetrics.enable();
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+
+        StreamUtils.writeToFileAtomic(testContent, file, Durability.NONE);
+        StreamUtils.appendToFile(testContent, file);
+        StreamUtils.writeToFileAt(testContent, file, 0);
+        StreamUtils.writeToFile(new ByteBuffer[] {ByteBuffer.wrap(testContent)}, file);
+        assertEquals(4, metrics.getCalls(IoMetrics.Operation.WRITE));
+        assertEquals(testContent.length * 4, metrics.getBytes(IoMetrics.Operation.WRITE));
+
+        StreamUtils.readWholeFileAsString(file, StandardCharsets.UTF_8);
+        assertEquals(1, metrics.getCalls(IoMetrics.Operation.READ));
+        assertEquals(testContent.length, metrics.getBytes(IoMetrics.Operation.READ));
+    }
+
+    @Test
+    public void testRegisterMBean() throws Exception {
+        IoMetrics.registerMBean();
+        // Registering again should be harmless
+        IoMetrics.registerMBean();
+        Object enabled = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName("io.github.nelsoncrosby.utils:type=IoMetrics"), "Enabled");
+        assertEquals(Boolean.FALSE, enabled);
+    }
+}
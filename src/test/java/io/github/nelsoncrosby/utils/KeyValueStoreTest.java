@@ -0,0 +1,237 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class KeyValueStoreTest {
+
+    private static File createDirectory() throws Exception {
+        File directory = Files.createTempDirectory("ncutils-kv").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testPutGetDelete() throws Exception {
+        File directory = createDirectory();
+        try {
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE)) {
+                store.put("a", "one".getBytes());
+                store.put("b", "two".getBytes());
+                store.put("a", "three".getBytes());
+                store.put("empty", new byte[0]);
+                assertTrue(store.delete("b"));
+                assertFalse(store.delete("b"));
+
+                assertArrayEquals("three".getBytes(), store.get("a"));
+                assertNull(store.get("b"));
+                assertEquals(2, store.size());
+            }
+
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.DATA)) {
+                assertArrayEquals("three".getBytes(), store.get("a"));
+                assertArrayEquals(new byte[0], store.get("empty"));
+                assertFalse(store.contains("b"));
+                assertEquals(2, store.keys().size());
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testReplayAcrossSegments() throws Exception {
+        File directory = createDirectory();
+        try {
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE, 256, Long.MAX_VALUE)) {
+                for (int i = 0; i < 100; i++)
+                    store.put("key" + i, ("value" + i).getBytes());
+            }
+            // Without the snapshot, the whole log has to be replayed
+            assertTrue(new File(directory, "SNAPSHOT").delete());
+
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE, 256, Long.MAX_VALUE)) {
+                assertEquals(100, store.size());
+                for (int i = 0; i < 100; i++)
+                    assertArrayEquals(("value" + i).getBytes(), store.get("key" + i));
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testTornTailDiscarded() throws Exception {
+        File directory = createDirectory();
+        try {
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE)) {
+                store.put("a", "one".getBytes());
+                store.put("b", "two".getBytes());
+            }
+            new File(directory, "SNAPSHOT").delete();
+            // Half a record, as if the process died while writing it
+            try (FileOutputStream out = new FileOutputStream(new File(directory, "log-0"), true)) {
+                out.write(new byte[] {1, 2, 3, 4, 0, 0, 0, 1, 0, 0, 0, 9, 'c'});
+            }
+
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE)) {
+                assertEquals(2, store.size());
+                assertArrayEquals("two".getBytes(), store.get("b"));
+                store.put("c", "three".getBytes());
+            }
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE)) {
+                assertEquals(3, store.size());
+                assertArrayEquals("three".getBytes(), store.get("c"));
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File directory = createDirectory();
+        try {
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE, 4096, Long.MAX_VALUE)) {
+                for (int i = 0; i < 1000; i++)
+                    store.put("key" + (i % 10), ("value" + i).getBytes());
+                store.delete("key0");
+                long before = store.getLogBytes();
+
+                store.compact().get();
+                assertTrue(store.getLogBytes() < before);
+                assertEquals(store.getLogBytes() - 8, store.getLiveBytes());
+                assertNull(store.get("key0"));
+                assertArrayEquals("value999".getBytes(), store.get("key9"));
+
+                store.put("key0", "again".getBytes());
+            }
+            assertFalse(new File(directory, "log-0").exists());
+
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE, 4096, Long.MAX_VALUE)) {
+                assertEquals(10, store.size());
+                assertArrayEquals("again".getBytes(), store.get("key0"));
+                assertArrayEquals("value991".getBytes(), store.get("key1"));
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testCompactionUnmapsOldLogs() throws Exception {
+        File directory = createDirectory();
+        try (final KeyValueStore store = new KeyValueStore(directory, Durability.NONE, 4096, Long.MAX_VALUE)) {
+            for (int i = 0; i < 100; i++)
+                store.put("key" + i, ("value" + i).getBytes());
+
+            final AtomicBoolean stop = new AtomicBoolean();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; !stop.get(); i = (i + 1) % 100)
+                        assertArrayEquals(("value" + i).getBytes(), store.get("key" + i));
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            for (int i = 0; i < 50; i++)
+                store.compact().get();
+            stop.set(true);
+            reader.join();
+            if (failure.get() != null)
+                throw new AssertionError(failure.get());
+
+            assertEquals(0, store.getRetiredLogs());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testCloseWhileReading() throws Exception {
+        File directory = createDirectory();
+        try {
+            final KeyValueStore store = new KeyValueStore(directory, Durability.NONE, 4096, Long.MAX_VALUE);
+            for (int i = 0; i < 100; i++)
+                store.put("key" + i, ("value" + i).getBytes());
+
+            final CountDownLatch reading = new CountDownLatch(1);
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; ; i = (i + 1) % 100) {
+                        assertArrayEquals(("value" + i).getBytes(), store.get("key" + i));
+                        reading.countDown();
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            reading.await();
+            store.close();
+            reader.join();
+            assertTrue(String.valueOf(failure.get()), failure.get() instanceof IllegalStateException);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testCompactionFailingAfterRename() throws Exception {
+        File directory = createDirectory();
+        try {
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE, 4096, Long.MAX_VALUE) {
+                @Override
+                void writeCurrent(int generation) throws IOException {
+                    super.writeCurrent(generation);
+                    // As if flushing the directory failed once CURRENT was renamed
+                    if (generation == 1)
+                        throw new IOException("Injected failure");
+                }
+            }) {
+                for (int i = 0; i < 100; i++)
+                    store.put("key" + (i % 10), ("value" + i).getBytes());
+                try {
+                    store.compact().get();
+                    fail("Compaction should have failed");
+                } catch (ExecutionException expected) {
+                    assertEquals("Injected failure", expected.getCause().getMessage());
+                }
+                store.put("after", "failure".getBytes());
+            }
+            assertFalse(new File(directory, "log-1").exists());
+
+            try (KeyValueStore store = new KeyValueStore(directory, Durability.NONE, 4096, Long.MAX_VALUE)) {
+                assertEquals(11, store.size());
+                assertArrayEquals("value99".getBytes(), store.get("key9"));
+                assertArrayEquals("failure".getBytes(), store.get("after"));
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class MappedFileTest {
+    final byte[] testContent = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+
+    private File createTestFile() throws Exception {
+        File file = File.createTempFile("ncutils", ".map");
+        file.deleteOnExit();
+        StreamUtils.writeToFile(testContent, file);
+        return file;
+    }
+
+    @Test
+    public void testSingleSegment() throws Exception {
+        try (MappedFile mapped = StreamUtils.mapWholeFile(createTestFile())) {
+            assertEquals(testContent.length, mapped.size());
+            assertEquals(1, mapped.getSegmentCount());
+
+            ByteBuffer segment = mapped.getSegment(0);
+            assertTrue(segment.isReadOnly());
+            byte[] contents = new byte[segment.remaining()];
+            segment.get(contents);
+            assertArrayEquals(testContent, contents);
+        }
+    }
+
+    @Test
+    public void testMultipleSegments() throws Exception {
+        try (MappedFile mapped = new MappedFile(createTestFile(), 10)) {
+            assertEquals(4, mapped.getSegmentCount());
+            assertEquals(6, mapped.getSegment(3).remaining());
+            for (int i = 0; i < testContent.length; i++)
+                assertEquals(testContent[i], mapped.get(i));
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        File file = File.createTempFile("ncutils", ".map");
+        file.deleteOnExit();
+        try (MappedFile mapped = StreamUtils.mapWholeFile(file)) {
+            assertEquals(0, mapped.size());
+            assertEquals(1, mapped.getSegmentCount());
+            assertEquals(0, mapped.getSegment(0).remaining());
+            assertEquals(0, mapped.slice(0, 0).remaining());
+            assertEquals(0, mapped.lines(Charset.forName("UTF-8")).count());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws Exception {
+        MappedFile mapped = StreamUtils.mapWholeFile(createTestFile());
+        mapped.close();
+        assertFalse(mapped.isOpen());
+        mapped.getSegment(0);
+    }
+
+    @Test
+    public void testParallelRecords() throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        List<String> expected = new ArrayList<>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            expected.add("record " + i);
+            content.append("record ").append(i).append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        File file = File.createTempFile("ncutils", ".map");
+        file.deleteOnExit();
+        StreamUtils.writeToFile(content, file, utf8);
+
+        // Small segments make some records cross segment boundaries
+        try (MappedFile mapped = new MappedFile(file, 100)) {
+            assertEquals(expected, mapped.lines(utf8).parallel().collect(Collectors.toList()));
+
+            MappedRecordSpliterator spliterator = new MappedRecordSpliterator(mapped, (byte) '\n', 1);
+            // Estimated from the first few (slightly shorter) records
+            assertTrue(spliterator.estimateSize() > 500 && spliterator.estimateSize() < 2000);
+            assertNotNull(spliterator.trySplit());
+            assertEquals(1000, StreamSupport.stream(new MappedRecordSpliterator(mapped, (byte) '\n', 1), true)
+                    .count());
+        }
+    }
+}
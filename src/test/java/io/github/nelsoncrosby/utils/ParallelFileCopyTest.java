@@ -0,0 +1,60 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ParallelFileCopyTest {
+
+    private File createTestFile(int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        File file = File.createTempFile("ncutils", ".src");
+        file.deleteOnExit();
+        StreamUtils.writeToFile(content, file);
+        return file;
+    }
+
+    @Test
+    public void testParallelCopy() throws Exception {
+        File source = createTestFile(3 * 1024 * 1024 + 17);
+        File destination = File.createTempFile("ncutils", ".dst");
+        destination.deleteOnExit();
+        final AtomicLong lastProgress = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            long copied = ParallelFileCopy.copyAsync(source, destination, 512 * 1024, 0, executor,
+                    (bytesCopied, totalBytes) -> lastProgress.accumulateAndGet(bytesCopied, Math::max))
+                    .get(30, TimeUnit.SECONDS);
+            assertEquals(source.length(), copied);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(source.length(), lastProgress.get());
+        assertArrayEquals(StreamUtils.readWholeFileSlice(source).array(),
+                StreamUtils.readWholeFileSlice(destination).array());
+    }
+
+    @Test
+    public void testSequentialBelowThreshold() throws Exception {
+        File source = createTestFile(1000);
+        File destination = File.createTempFile("ncutils", ".dst");
+        destination.deleteOnExit();
+
+        assertEquals(1000, ParallelFileCopy.copy(source, destination));
+        assertArrayEquals(StreamUtils.readWholeFileSlice(source).array(),
+                StreamUtils.readWholeFileSlice(destination).array());
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ParallelGzipTest {
+
+    private byte[] createTestContent() {
+        // Half random, half repetitive, so some blocks compress and some don't
+        byte[] content = new byte[100000];
+        new Random(42).nextBytes(content);
+        for (int i = content.length / 2; i < content.length; i++)
+            content[i] = (byte) ('a' + i % 7);
+        return content;
+    }
+
+    private byte[] compress(byte[] content) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGzip.compress(new ByteArrayInputStream(content), compressed, 4096,
+                Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+        return compressed.toByteArray();
+    }
+
+    @Test
+    public void testReadableByGzipInputStream() throws Exception {
+        byte[] content = createTestContent();
+        byte[] decompressed = StreamUtils.readWholeStream(
+                new GZIPInputStream(new ByteArrayInputStream(compress(content)))).toByteArray();
+        assertArrayEquals(content, decompressed);
+    }
+
+    @Test
+    public void testParallelRoundTrip() throws Exception {
+        byte[] content = createTestContent();
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        ParallelGzip.decompress(new ByteArrayInputStream(compress(content)), decompressed);
+        assertArrayEquals(content, decompressed.toByteArray());
+    }
+
+    @Test
+    public void testDecompressStandardGzip() throws Exception {
+        byte[] content = createTestContent();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        StreamUtils.writeToStream(content, new GZIPOutputStream(compressed));
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        ParallelGzip.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+        assertArrayEquals(content, decompressed.toByteArray());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        byte[] compressed = compress(new byte[0]);
+        assertEquals(-1, new GZIPInputStream(new ByteArrayInputStream(compressed)).read());
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        ParallelGzip.decompress(new ByteArrayInputStream(compressed), decompressed);
+        assertEquals(0, decompressed.size());
+    }
+
+    private static void assertRejected(byte[] compressed) throws Exception {
+        try {
+            ParallelGzip.decompress(new ByteArrayInputStream(compressed), new ByteArrayOutputStream());
+            fail("Forged gzip member was accepted");
+        } catch (ZipException expected) {
+        }
+    }
+
+    @Test
+    public void testForgedSizesRejected() throws Exception {
+        byte[] compressed = compress(createTestContent());
+        int memberSize = ByteBuffer.wrap(compressed, 16, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+
+        byte[] forgedMember = compressed.clone();
+        ByteBuffer.wrap(forgedMember).order(ByteOrder.LITTLE_ENDIAN).putInt(16, Integer.MAX_VALUE);
+        assertRejected(forgedMember);
+
+        byte[] forgedIsize = compressed.clone();
+        ByteBuffer.wrap(forgedIsize).order(ByteOrder.LITTLE_ENDIAN).putInt(memberSize - 4, Integer.MAX_VALUE - 8);
+        assertRejected(forgedIsize);
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class RecordReaderTest {
+    final Charset utf8 = Charset.forName("UTF-8");
+
+    private ByteArrayInputStream streamOf(String content) {
+        return new ByteArrayInputStream(content.getBytes(utf8));
+    }
+
+    @Test
+    public void testLines() throws Exception {
+        // A tiny buffer forces compaction and growth
+        List<String> lines = RecordReader.lines(streamOf("first\r\nsecond line\n\nlast"), 4)
+                .strings(utf8).collect(Collectors.toList());
+        assertEquals(Arrays.asList("first", "second line", "", "last"), lines);
+    }
+
+    @Test
+    public void testTrailingDelimiter() throws Exception {
+        List<String> records = RecordReader.delimited(streamOf("a,b,"), (byte) ',', 2)
+                .strings(utf8).collect(Collectors.toList());
+        assertEquals(Arrays.asList("a", "b"), records);
+    }
+
+    @Test
+    public void testFixedLength() throws Exception {
+        List<String> records = RecordReader.fixedLength(streamOf("abcdefgh"), 3)
+                .strings(utf8).collect(Collectors.toList());
+        assertEquals(Arrays.asList("abc", "def", "gh"), records);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertFalse(RecordReader.lines(streamOf("")).hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroBlockSize() throws Exception {
+        RecordReader.delimited(streamOf("a,b"), (byte) ',', 0);
+    }
+}
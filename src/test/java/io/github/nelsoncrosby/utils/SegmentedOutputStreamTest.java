@@ -0,0 +1,81 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SegmentedOutputStreamTest {
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testWrites() throws Exception {
+        byte[] content = randomBytes(1000);
+        SegmentedOutputStream out = new SegmentedOutputStream(64);
+        out.write(content[0]);
+        out.write(content, 1, 500);
+        out.write(content, 501, 499);
+
+        assertEquals(1000, out.size());
+        assertArrayEquals(content, out.toByteArray());
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        out.writeTo(copy);
+        assertArrayEquals(content, copy.toByteArray());
+
+        out.reset();
+        assertEquals(0, out.size());
+        out.write(content, 0, 10);
+        assertEquals(10, out.toByteArray().length);
+    }
+
+    @Test
+    public void testReadWholeStreamSegmented() throws Exception {
+        byte[] content = randomBytes(100000);
+        SegmentedOutputStream out = StreamUtils.readWholeStreamSegmented(new ByteArrayInputStream(content), 4096);
+        assertEquals(content.length, out.size());
+
+        // Back out as a stream, a byte and a few blocks at a time
+        InputStream in = out.toInputStream();
+        assertEquals(content.length, in.available());
+        assertEquals(content[0] & 0xff, in.read());
+        assertEquals(5000, in.skip(5000));
+        byte[] rest = new byte[content.length - 5001];
+        int read = 0;
+        while (read < rest.length)
+            read += in.read(rest, read, Math.min(7000, rest.length - read));
+        assertEquals(-1, in.read());
+        for (int i = 0; i < rest.length; i++)
+            assertEquals(content[5001 + i], rest[i]);
+
+        // And as buffers for a gathering write
+        ByteBuffer[] buffers = out.toByteBuffers();
+        assertEquals(25, buffers.length);
+        assertTrue(buffers[0].isReadOnly());
+        File file = File.createTempFile("ncutils", ".bin");
+        file.deleteOnExit();
+        StreamUtils.writeToFile(buffers, file);
+        assertArrayEquals(content, StreamUtils.readWholeFileSlice(file).toByteArray());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        SegmentedOutputStream out = StreamUtils.readWholeStreamSegmented(new ByteArrayInputStream(new byte[0]));
+        assertEquals(0, out.size());
+        assertEquals(0, out.toByteArray().length);
+        assertEquals(-1, out.toInputStream().read());
+    }
+}
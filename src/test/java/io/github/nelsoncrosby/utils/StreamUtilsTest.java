@@ -1,10 +1,32 @@
 package io.github.nelsoncrosby.utils;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 /**
  *
@@ -68,4 +90,307 @@ public class StreamUtilsTest {
                     testContent, destination.toByteArray());
         }
     }
+
+    /**
+     * Test the {@link StreamUtils#copyStreams} method between two files, which
+     *  should take the {@link java.nio.channels.FileChannel#transferTo} path.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCopyStreamsFileToFile() throws Exception {
+        File source = File.createTempFile("ncutils", ".src");
+        File destination = File.createTempFile("ncutils", ".dst");
+        source.deleteOnExit();
+        destination.deleteOnExit();
+        StreamUtils.writeToFile(testContent, source);
+
+        StreamUtils.copyStreams(new FileInputStream(source), new FileOutputStream(destination), 1);
+
+        Assert.assertArrayEquals("Destination data did not match source data",
+                testContent, StreamUtils.readWholeFile(destination).toByteArray());
+    }
+
+    /**
+     * Test the {@link StreamUtils#copyChannels} method from a non-file channel
+     *  into a file, which should take the
+     *  {@link java.nio.channels.FileChannel#transferFrom} path.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCopyChannelsIntoFile() throws Exception {
+        File destination = File.createTempFile("ncutils", ".dst");
+        destination.deleteOnExit();
+
+        StreamUtils.copyChannels(Channels.newChannel(new ByteArrayInputStream(testContent)),
+                new FileOutputStream(destination).getChannel(), 7);
+
+        Assert.assertArrayEquals("Destination data did not match source data",
+                testContent, StreamUtils.readWholeFile(destination).toByteArray());
+    }
+
+    /**
+     * Test the {@link StreamUtils#readWholeFileSlice} method, including on an
+     *  empty file.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReadWholeFileSlice() throws Exception {
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+        Assert.assertEquals("Empty file gave a non-empty slice",
+                0, StreamUtils.readWholeFileSlice(file).length());
+
+        StreamUtils.writeToFile(testContent, file);
+        ByteSlice slice = StreamUtils.readWholeFileSlice(file);
+        Assert.assertEquals("Backing array was not exactly sized",
+                testContent.length, slice.array().length);
+        Assert.assertArrayEquals("Read data did not match file data",
+                testContent, slice.toByteArray());
+    }
+
+    /**
+     * Test reading a file into direct buffers, both supplied and pooled.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReadWholeFileDirect() throws Exception {
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+        StreamUtils.writeToFile(testContent, file);
+
+        ByteBuffer into = ByteBuffer.allocateDirect(testContent.length + 10);
+        into.put((byte) '>');
+        StreamUtils.readWholeFile(file, into).flip();
+        Assert.assertEquals(testContent.length + 1, into.remaining());
+        Assert.assertEquals('>', into.get());
+        byte[] read = new byte[testContent.length];
+        into.get(read);
+        Assert.assertArrayEquals("Read data did not match file data", testContent, read);
+
+        try {
+            StreamUtils.readWholeFile(file, ByteBuffer.allocateDirect(10));
+            Assert.fail("File should not have fit");
+        } catch (BufferOverflowException expected) {
+        }
+
+        BufferPool pool = BufferPool.getDefault();
+        long outstanding = pool.getOutstanding();
+        ByteBuffer pooled = StreamUtils.readWholeFileDirect(file);
+        Assert.assertTrue(pooled.isDirect());
+        Assert.assertEquals(testContent.length, pooled.remaining());
+        pooled.get(read);
+        Assert.assertArrayEquals("Read data did not match file data", testContent, read);
+        pool.releaseDirect(pooled);
+        Assert.assertEquals(outstanding, pool.getOutstanding());
+    }
+
+    /**
+     * Test the {@link StreamUtils#writeToStream(byte[], OutputStream, int)}
+     *  method using a block size that doesn't divide the content evenly.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteToStreamChunked() throws Exception {
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        StreamUtils.writeToStream(testContent, destination, 7);
+        Assert.assertArrayEquals("Destination data did not match source data",
+                testContent, destination.toByteArray());
+    }
+
+    /**
+     * Test the gathering, appending and positional write methods.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteModes() throws Exception {
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+        int half = testContent.length / 2;
+        byte[] first = Arrays.copyOfRange(testContent, 0, half);
+        byte[] second = Arrays.copyOfRange(testContent, half, testContent.length);
+
+        StreamUtils.writeToFile(new byte[][] {first, second}, file);
+        Assert.assertArrayEquals("Gathering write did not match source data",
+                testContent, StreamUtils.readWholeFile(file).toByteArray());
+
+        StreamUtils.writeToFile(new ByteBuffer[] {ByteBuffer.wrap(first)}, file);
+        StreamUtils.appendToFile(second, file);
+        Assert.assertArrayEquals("Appending write did not match source data",
+                testContent, StreamUtils.readWholeFile(file).toByteArray());
+
+        StreamUtils.writeToFileAt("XY".getBytes(), file, 1);
+        byte[] expected = testContent.clone();
+        expected[1] = 'X';
+        expected[2] = 'Y';
+        Assert.assertArrayEquals("Positional write did not match expected data",
+                expected, StreamUtils.readWholeFile(file).toByteArray());
+    }
+
+    /**
+     * Test encoding and decoding with an explicit charset, using a block size
+     *  small enough that multi-byte characters get split between blocks.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCharsetRoundTrip() throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        String text = "Gr\u00fc\u00dfe, \u4e16\u754c! \ud83d\ude00 " + new String(testContent, utf8);
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+
+        StreamUtils.writeToStream(text, destination, utf8, 1);
+        Assert.assertArrayEquals("Encoded data did not match String.getBytes",
+                text.getBytes(utf8), destination.toByteArray());
+
+        String decoded = StreamUtils.readWholeStreamAsString(
+                new ByteArrayInputStream(destination.toByteArray()), utf8, 1);
+        Assert.assertEquals("Decoded text did not match source text", text, decoded);
+    }
+
+    /**
+     * Test the {@link StreamUtils#copyStreamsPipelined} method with a small
+     *  block size and ring, so the reader has to wait for the writer.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCopyStreamsPipelined() throws Exception {
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        StreamUtils.copyStreamsPipelined(new ByteArrayInputStream(testContent), destination, 5, 2);
+        Assert.assertArrayEquals("Destination data did not match source data",
+                testContent, destination.toByteArray());
+    }
+
+    /**
+     * Test that an error from the reading side of
+     *  {@link StreamUtils#copyStreamsPipelined} is thrown to the caller.
+     *
+     * @throws Exception
+     */
+    @Test(expected = IOException.class)
+    public void testCopyStreamsPipelinedReadError() throws Exception {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("expected");
+            }
+        };
+        StreamUtils.copyStreamsPipelined(failing, new ByteArrayOutputStream(), 5, 2);
+    }
+
+    /**
+     * Test that {@link StreamUtils#copyStreamsDigesting} and
+     *  {@link StreamUtils#digestFile} agree with hashing the data directly.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDigesting() throws Exception {
+        CRC32 expectedCrc = new CRC32();
+        expectedCrc.update(testContent);
+        byte[] expectedSha = MessageDigest.getInstance("SHA-256").digest(testContent);
+
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        DigestResult copied = StreamUtils.copyStreamsDigesting(new ByteArrayInputStream(testContent),
+                destination, 7, new Checksum[] {new CRC32(), new Adler32()},
+                MessageDigest.getInstance("SHA-256"));
+        Assert.assertArrayEquals("Destination data did not match source data",
+                testContent, destination.toByteArray());
+        Assert.assertEquals(testContent.length, copied.getByteCount());
+        Assert.assertEquals(expectedCrc.getValue(), copied.getChecksum(0));
+        Assert.assertArrayEquals(expectedSha, copied.getDigest(0));
+
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+        StreamUtils.writeToFile(testContent, file);
+        DigestResult hashed = StreamUtils.digestFile(file, new Checksum[] {new CRC32(), new Adler32()},
+                MessageDigest.getInstance("SHA-256"));
+        Assert.assertEquals(copied.getChecksum(0), hashed.getChecksum(0));
+        Assert.assertEquals(copied.getChecksum(1), hashed.getChecksum(1));
+        Assert.assertEquals(copied.getDigestHex(0), hashed.getDigestHex(0));
+    }
+
+    /**
+     * Test that {@link StreamUtils#writeToFileAtomic} replaces the file and
+     *  leaves no temporary files behind.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteToFileAtomic() throws Exception {
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+        StreamUtils.writeToFile("old contents", file);
+
+        StreamUtils.writeToFileAtomic(testContent, file, Durability.FULL);
+        Assert.assertArrayEquals("File did not contain the new data",
+                testContent, StreamUtils.readWholeFile(file).toByteArray());
+        for (String sibling : file.getParentFile().list())
+            Assert.assertFalse("A temporary file was left behind", sibling.startsWith("." + file.getName()));
+    }
+
+    /**
+     * Test that {@link StreamUtils#writeToFileAtomic} keeps the permissions
+     *  of the file it replaces, and gives new files the default ones.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteToFileAtomicPermissions() throws Exception {
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+        Assume.assumeNotNull(Files.getFileAttributeView(file.toPath(), PosixFileAttributeView.class));
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(file.toPath(), permissions);
+
+        StreamUtils.writeToFileAtomic(testContent, file, Durability.NONE);
+        Assert.assertEquals(permissions, Files.getPosixFilePermissions(file.toPath()));
+
+        File plain = new File(file.getPath() + ".plain");
+        File atomic = new File(file.getPath() + ".atomic");
+        plain.deleteOnExit();
+        atomic.deleteOnExit();
+        StreamUtils.writeToFile(testContent, plain);
+        StreamUtils.writeToFileAtomic(testContent, atomic, Durability.NONE);
+        Assert.assertEquals(Files.getPosixFilePermissions(plain.toPath()),
+                Files.getPosixFilePermissions(atomic.toPath()));
+    }
+
+    /**
+     * Test that {@link StreamUtils#writeToFileIfChanged} only writes when
+     *  the content differs, for both read and mapped comparisons.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteToFileIfChanged() throws Exception {
+        File file = File.createTempFile("ncutils", ".txt");
+        file.deleteOnExit();
+
+        Assert.assertTrue(StreamUtils.writeToFileIfChanged(testContent, file));
+        Assert.assertTrue(file.setLastModified(1000000000000L));
+        Assert.assertFalse(StreamUtils.writeToFileIfChanged(testContent.clone(), file));
+        Assert.assertEquals("Unchanged file was touched", 1000000000000L, file.lastModified());
+
+        byte[] changed = testContent.clone();
+        changed[changed.length - 1] ^= 1;
+        Assert.assertTrue(StreamUtils.writeToFileIfChanged(changed, file));
+        Assert.assertArrayEquals(changed, StreamUtils.readWholeFileSlice(file).toByteArray());
+        Assert.assertTrue(StreamUtils.writeToFileIfChanged("short", file, Charset.forName("UTF-8")));
+
+        // Big enough to be mapped for the comparison
+        byte[] large = new byte[(int) Sys.getProfile().getMapThreshold() + 12345];
+        new Random(42).nextBytes(large);
+        Assert.assertTrue(StreamUtils.writeToFileIfChanged(large, file));
+        Assert.assertFalse(StreamUtils.writeToFileIfChanged(large.clone(), file));
+        large[large.length - 1] ^= 1;
+        Assert.assertTrue(StreamUtils.writeToFileIfChanged(large, file));
+        Assert.assertFalse(StreamUtils.writeToFileIfChanged(large, file));
+    }
 }
@@ -0,0 +1,67 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SystemProfileTest {
+
+    @Test
+    public void testProbedProfile() throws Exception {
+        SystemProfile profile = Sys.getProfile();
+        assertSame(profile, Sys.getProfile());
+
+        assertTrue(profile.getLogicalCpus() >= 1);
+        assertTrue(profile.getPhysicalCpus() >= 1);
+        assertTrue(profile.getEffectiveCpus() <= profile.getLogicalCpus());
+        assertTrue(profile.getPageSize() >= 512);
+        assertTrue(profile.getCacheLineSize() >= 16);
+
+        int blockSize = profile.getBlockSize();
+        assertEquals(blockSize, StreamUtils.DEFAULT_BLOCK_SIZE);
+        assertEquals(Integer.bitCount(blockSize), 1);
+        assertTrue(blockSize >= 8 * 1024 && blockSize <= 128 * 1024);
+
+        SystemProfile.FileSystemInfo tmp = profile.getFileSystem(new File(System.getProperty("java.io.tmpdir")));
+        assertNotNull(tmp.getType());
+        assertTrue(tmp.getBlockSize() > 0);
+    }
+
+    @Test
+    public void testParseCpuInfo() throws Exception {
+        String cpuInfo = "processor\t: 0\nphysical id\t: 0\ncore id\t\t: 0\n\n"
+                + "processor\t: 1\nphysical id\t: 0\ncore id\t\t: 0\n\n"
+                + "processor\t: 2\nphysical id\t: 0\ncore id\t\t: 1\n\n"
+                + "processor\t: 3\nphysical id\t: 0\ncore id\t\t: 1\n";
+        assertArrayEquals(new int[] {4, 2}, SystemProfile.parseCpuInfo(cpuInfo));
+        // No topology listed (e.g. some ARM kernels)
+        assertArrayEquals(new int[] {2, 0}, SystemProfile.parseCpuInfo("processor : 0\nprocessor : 1\n"));
+    }
+
+    @Test
+    public void testParseLimits() throws Exception {
+        assertEquals(16L << 30, SystemProfile.parseMemInfo(
+                "MemTotal:       16777216 kB\nMemFree:          1024 kB\n", "MemTotal"));
+        assertEquals(-1, SystemProfile.parseMemInfo("MemTotal: 1 kB\n", "MemAvailable"));
+
+        assertEquals(1.5, SystemProfile.parseCpuMax("150000 100000\n"), 0.0);
+        assertEquals(-1, SystemProfile.parseCpuMax("max 100000\n"), 0.0);
+        assertEquals(-1, SystemProfile.parseCpuMax("-1 100000"), 0.0);
+
+        assertEquals(512L << 20, SystemProfile.parseMemoryMax("536870912\n", 8L << 30));
+        assertEquals(-1, SystemProfile.parseMemoryMax("max\n", 8L << 30));
+        assertEquals(-1, SystemProfile.parseMemoryMax("9223372036854771712", 8L << 30));
+    }
+
+    @Test
+    public void testSmallMemoryBlockSize() throws Exception {
+        SystemProfile small = new SystemProfile(1, 1, 4096, 64, 1L << 30, -1, -1, 128L << 20);
+        assertEquals(16 * 1024, small.getBlockSize());
+        assertEquals(128L << 20, small.getEffectiveMemory());
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.nelsoncrosby.utils;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TransferSchedulerTest {
+
+    @Test
+    public void testTransferLimit() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(2, Long.MAX_VALUE, Runnable::run);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+
+        CompletableFuture<String> firstResult = scheduler.submit(1, () -> first);
+        scheduler.submit(1, () -> second);
+        CompletableFuture<String> third = scheduler.submit(1, () -> CompletableFuture.completedFuture("third"));
+        assertEquals(2, scheduler.getActiveTransfers());
+        assertEquals(1, scheduler.getQueuedTransfers());
+        assertFalse(third.isDone());
+
+        first.complete("first");
+        assertEquals("first", firstResult.get());
+        assertEquals("third", third.get());
+        assertEquals(1, scheduler.getActiveTransfers());
+        assertEquals(0, scheduler.getQueuedTransfers());
+    }
+
+    @Test
+    public void testByteLimit() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(10, 100, Runnable::run);
+        CompletableFuture<Void> big = new CompletableFuture<>();
+
+        // Larger than the limit, but allowed since nothing else is running
+        scheduler.submit(150, () -> big);
+        CompletableFuture<Void> small = scheduler.submit(10, () -> CompletableFuture.completedFuture(null));
+        assertEquals(150, scheduler.getActiveBytes());
+        assertFalse(small.isDone());
+
+        big.complete(null);
+        assertTrue(small.isDone());
+        assertEquals(0, scheduler.getActiveBytes());
+    }
+
+    @Test
+    public void testFailurePropagates() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(1, 1, Runnable::run);
+        CompletableFuture<Object> result = scheduler.submitBlocking(1, () -> {
+            throw new IllegalStateException("expected");
+        });
+        assertTrue(result.isCompletedExceptionally());
+        assertEquals(0, scheduler.getActiveTransfers());
+    }
+
+    @Test
+    public void testManyImmediateFailures() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(2, Long.MAX_VALUE, Runnable::run);
+        CompletableFuture<Void> blocker = new CompletableFuture<>();
+        scheduler.submit(1, () -> blocker);
+        scheduler.submit(1, () -> blocker);
+
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            results.add(scheduler.submit(1, () -> {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new FileNotFoundException());
+                return failed;
+            }));
+        }
+        assertEquals(20000, scheduler.getQueuedTransfers());
+
+        blocker.complete(null);
+        for (CompletableFuture<Void> result : results)
+            assertTrue(result.isCompletedExceptionally());
+        assertEquals(0, scheduler.getActiveTransfers());
+        assertEquals(0, scheduler.getQueuedTransfers());
+    }
+}